@@ -1,10 +1,7 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
@@ -64,6 +61,8 @@ public abstract class Agent {
         static final String STRENGTH_PARAM = "strength";
         /** Attribute name for how much agent can see @see fieldOfViewEachSide */
         static final String FIELD_OF_VIEW_PARAM = "viewAngle";
+        /** Attribute name for how far agent can see @see perceptionRadius */
+        static final String RANGE_PARAM = "range";
         /** Attribute name for red component of color */
         static final String R_PARAM = "r";
         /** Attribute name for green component of color */
@@ -91,6 +90,8 @@ public abstract class Agent {
         public int strength;
         /** What can the agent see */
         public double fieldOfViewEachSide;
+        /** How far can the agent see (infinite if no limit) */
+        public double perceptionRadius;
         /** What color should the agent be primarily drawn in */
         public Color color;
         /** Should we visualize debugging information? */
@@ -119,6 +120,7 @@ public abstract class Agent {
             maxAccel = a; maxDecel = d; maxTurn = t;
             strength = p; fieldOfViewEachSide = v;
             color = c; debug = g; withExtensions = e;
+            perceptionRadius = Double.POSITIVE_INFINITY;
         }
         
         /**
@@ -135,6 +137,7 @@ public abstract class Agent {
             maxTurn = a.maxTurn;
             strength = a.strength;
             fieldOfViewEachSide = a.fieldOfViewEachSide;
+            perceptionRadius = a.perceptionRadius;
             color = a.color;
             debug = a.debug;
             withExtensions = a.withExtensions;
@@ -166,6 +169,7 @@ public abstract class Agent {
             strength = FlockingReader.getIntParam(atts, STRENGTH_PARAM, defaults.strength, locator);
             degrees = FlockingReader.getDoubleParam(atts, FIELD_OF_VIEW_PARAM, RADIANS_TO_DEGREES * defaults.fieldOfViewEachSide, locator);
             fieldOfViewEachSide = World.clampToCircle(degrees * DEGREES_TO_RADIANS, 2 * Math.PI);
+            perceptionRadius = FlockingReader.getDoubleParam(atts, RANGE_PARAM, defaults.perceptionRadius, locator);
             int r = FlockingReader.getIntParam(atts, R_PARAM, defaults.color.getRed(), locator);
             int g = FlockingReader.getIntParam(atts, G_PARAM, defaults.color.getGreen(), locator);
             int b = FlockingReader.getIntParam(atts, B_PARAM, defaults.color.getBlue(), locator);
@@ -207,6 +211,7 @@ public abstract class Agent {
                     MAX_TURN_PARAM + OPEN + Double.toString(mt) + CLOSE +
                     STRENGTH_PARAM + OPEN + Integer.toString(strength) + CLOSE +
                     FIELD_OF_VIEW_PARAM + OPEN + Double.toString(fov) + CLOSE +
+                    RANGE_PARAM + OPEN + Double.toString(perceptionRadius) + CLOSE +
                     R_PARAM + OPEN + Integer.toString(color.getRed()) + CLOSE +
                     G_PARAM + OPEN + Integer.toString(color.getGreen()) + CLOSE +
                     B_PARAM + OPEN + Integer.toString(color.getBlue()) + CLOSE +
@@ -274,6 +279,14 @@ public abstract class Agent {
          * @param a attributes to mirror
          */
         DynamicAgentAttributes(DynamicAgentAttributes a){
+            set(a);
+        }
+
+        /**
+         * Copy other attributes into these, in place
+         * @param a attributes to mirror
+         */
+        void set(DynamicAgentAttributes a) {
             locX = a.locX;
             locY = a.locY;
             heading = a.heading;
@@ -318,13 +331,27 @@ public abstract class Agent {
          */
         public void log(BufferedWriter out)
         throws IOException {
-            double degrees = heading * RADIANS_TO_DEGREES;
-            
+            log(out, locX, locY, heading * RADIANS_TO_DEGREES, forwardV);
+        }
+        
+        /**
+         * Write XML attributes giving dynamic agent attributes
+         * to the file given by out.
+         *  
+         * @param out destination file
+         * @param x horizontal coordinate
+         * @param y vertical coordinate
+         * @param degrees heading, in degrees
+         * @param v forward speed
+         * @throws IOException if writing fails
+         */
+        static void log(BufferedWriter out, double x, double y, double degrees, double v)
+        throws IOException {
             out.write(
-                    X_PARAM + OPEN + Double.toString(locX) + CLOSE +
-                    Y_PARAM + OPEN + Double.toString(locY) + CLOSE +
+                    X_PARAM + OPEN + Double.toString(x) + CLOSE +
+                    Y_PARAM + OPEN + Double.toString(y) + CLOSE +
                     HEADING_PARAM + OPEN + Double.toString(degrees) + CLOSE +
-                    FORWARD_PARAM + OPEN + Double.toString(forwardV) + CLOSE +
+                    FORWARD_PARAM + OPEN + Double.toString(v) + CLOSE +
                     "\n");
         }
         
@@ -378,11 +405,32 @@ public abstract class Agent {
     /** What is the agent doing right now */
     protected DynamicAgentAttributes status;
     
-    /** Actions computed by deliberation that have yet to be acted on */
+    /**
+     * Actions computed by deliberation that have yet to be acted on,
+     * for agents that make lists of Intentions; see also intend
+     */
     protected List<Intention> todo = null;
+
+    /** Which kinds of action have been intended, one bit for each ActionType */
+    private int intended = 0;
+
+    /** Intended change in angle, if a turn has been intended */
+    private double intendedTurn;
+
+    /** Intended change in speed, if a change in speed has been intended */
+    private double intendedSpeed;
     
     /** Preserve last status for debugging visualization */
     protected DynamicAgentAttributes lastStatus = null;
+
+    /** Position of the agent in its world's index for the current step, -1 if none */
+    int slot = -1;
+
+    /** What was last written about the agent to a delta log, null if nothing yet */
+    private DynamicAgentAttributes logged = null;
+
+    /** Counts how many agents had joined the world before this one */
+    int joined = 0;
     
     /**
      * Accessor methods
@@ -452,7 +500,33 @@ public abstract class Agent {
     public double getFieldOfViewEachSide() {
         return form.fieldOfViewEachSide;
     }
-    
+
+    /**
+     * How far away can this agent notice other agents?
+     * The world does not bother constructing percepts for
+     * agents that are farther away than this.
+     * By default this is the range given in the XML spec,
+     * which is unlimited unless specified.  Subclasses that
+     * ignore things past some distance should say so here.
+     *
+     * @return radius in pixels, infinite if the agent can see
+     *         everything in its field of view
+     */
+    public double getPerceptionRadius() {
+        return form.perceptionRadius;
+    }
+
+    /**
+     * Does this agent just sit there?  The world does not ask
+     * stationary agents to deliberate or act, and keeps them
+     * in a separate index that is only rebuilt when they change.
+     *
+     * @return true if the agent never moves or decides anything
+     */
+    public boolean isStationary() {
+        return false;
+    }
+
     /**
      * Mark an agent as dead.
      */
@@ -575,9 +649,23 @@ public abstract class Agent {
      * in the direction given by the current heading.
      */
     private void go() {
-        double newLocX = status.locX + status.forwardV * Math.cos(status.heading);
-        double newLocY = status.locY + status.forwardV * Math.sin(status.heading);
-        myWorld.tryToMove(this, newLocX, newLocY);  
+        myWorld.tryToMove(this, nextLocX(), nextLocY());  
+    }
+
+    /**
+     * @return horizontal coordinate the agent would reach in one step
+     *         at its current speed and heading
+     */
+    double nextLocX() {
+        return status.locX + status.forwardV * Math.cos(status.heading);
+    }
+
+    /**
+     * @return vertical coordinate the agent would reach in one step
+     *         at its current speed and heading
+     */
+    double nextLocY() {
+        return status.locY + status.forwardV * Math.sin(status.heading);
     }
 
     /**
@@ -586,28 +674,85 @@ public abstract class Agent {
      * Then move the agent one step.
      */
     public void act() {
-        Set<Intention.ActionType> done = new HashSet<Intention.ActionType>();
+        steer();
+        go();
+    }
+
+    /**
+     * Commit to an action for the next step: the same as adding
+     * an Intention to the todo list, without making any objects.
+     * Deliberation should intend at most one action of each kind;
+     * a repeated one is ignored.
+     * 
+     * @param type what to do
+     * @param param how much to do
+     */
+    protected void intend(Intention.ActionType type, double param) {
+        int bit = 1 << type.ordinal();
+        if ((intended & bit) != 0) {
+            System.err.println("Error: repeated action of " + type.description + " ignored");
+            return;
+        }
+        intended |= bit;
+        switch (type) {
+        case TURN:
+            intendedTurn = param;
+            break;
+        case CHANGE_SPEED:
+            intendedSpeed = param;
+            break;
+        }
+    }
+
+    /**
+     * @return how many actions the agent has intended since it
+     *         last acted, by intend or in its todo list
+     */
+    int intentionCount() {
+        return Integer.bitCount(intended) + (todo == null ? 0 : todo.size());
+    }
+
+    /**
+     * Carry out the turning and speed changing actions given by
+     * the agent's todo list and by intend, leaving the agent where
+     * it is.  Used directly by worlds where all agents move at once.
+     */
+    void steer() {
+        int done = 0;
         
-        lastStatus = new DynamicAgentAttributes(status);
+        if (lastStatus == null)
+            lastStatus = new DynamicAgentAttributes(status);
+        else
+            lastStatus.set(status);
         
-        for (Intention a: todo)
-        {
-            Intention.ActionType t = a.getType();
-            if (done.contains(t)) {
-                System.err.println("Error: repeated action of " + t.description + " ignored");
-            }
-            done.add(t);
-            switch (t) {
-            case TURN:
-                turn(a.getParam());
-                break;
-            case CHANGE_SPEED:
-                changeSpeed(a.getParam());
-                break;
+        if (todo != null) {
+            for (Intention a: todo)
+            {
+                Intention.ActionType t = a.getType();
+                int bit = 1 << t.ordinal();
+                if ((done & bit) != 0) {
+                    System.err.println("Error: repeated action of " + t.description + " ignored");
+                }
+                done |= bit;
+                switch (t) {
+                case TURN:
+                    turn(a.getParam());
+                    break;
+                case CHANGE_SPEED:
+                    changeSpeed(a.getParam());
+                    break;
+                }
             }
         }
-        
-        go();
+
+        if ((intended & done) != 0)
+            System.err.println("Error: action both intended and in todo list ignored");
+        intended &= ~done;
+        if ((intended & (1 << Intention.ActionType.TURN.ordinal())) != 0)
+            turn(intendedTurn);
+        if ((intended & (1 << Intention.ActionType.CHANGE_SPEED.ordinal())) != 0)
+            changeSpeed(intendedSpeed);
+        intended = 0;
     }
 
     /**
@@ -636,6 +781,56 @@ public abstract class Agent {
         out.write("    />\n");
     }
     
+    /**
+     * Write the XML description changelog would give of
+     * an agent with the given dynamic properties
+     * 
+     * @param out destination channel for XML element
+     * @param id id of the agent
+     * @param x horizontal coordinate
+     * @param y vertical coordinate
+     * @param degrees heading, in degrees
+     * @param v forward speed
+     * @throws IOException in case writing fails
+     */
+    static void changelog(BufferedWriter out, int id, double x, double y, double degrees, double v)
+    throws IOException {
+        out.write("   <" + UPDATE + " " + ID_PARAM + OPEN + Integer.toString(id) + CLOSE +
+        "\n    ");
+        DynamicAgentAttributes.log(out, x, y, degrees, v);
+        out.write("    />\n");
+    }
+    
+    /**
+     * Check whether the agent has changed, since it was last
+     * written to a delta log, by more than the given tolerances
+     * 
+     * @param position how far the agent can move, in pixels along each axis
+     * @param heading how far the agent can turn, in radians
+     * @param speed how much the agent's speed can change
+     * @return true if the agent has changed by more, or was never logged
+     */
+    boolean changedSinceLogged(double position, double heading, double speed) {
+        if (logged == null)
+            return true;
+        // written so that a value turning into NaN counts as a change
+        return !(Math.abs(status.locX - logged.locX) <= position &&
+            Math.abs(status.locY - logged.locY) <= position &&
+            Math.abs(World.displacementOnCircle(logged.heading, status.heading, 2 * Math.PI)) <= heading &&
+            Math.abs(status.forwardV - logged.forwardV) <= speed);
+    }
+    
+    /**
+     * Remember the current dynamic properties of the agent
+     * as what was last written to a delta log
+     */
+    void noteLogged() {
+        if (logged == null)
+            logged = new DynamicAgentAttributes(status);
+        else
+            logged.set(status);
+    }
+    
     /**
      * Change the parameters of this agent to reflect the information
      * in the passed XML specification
@@ -652,10 +847,11 @@ public abstract class Agent {
     
     
     /**
-     * renders a picture of the agent into the world display
-     * @param g graphics information
+     * renders a picture of the agent into the snapshot of the
+     * world being made for display
+     * @param s snapshot being made
      */
-    public abstract void draw(Graphics g);
+    public abstract void draw(Snapshot.Builder s);
     
     /**
      * @return the type information that you can tell about agent
@@ -691,4 +887,19 @@ public abstract class Agent {
      *           from the agent's perspective
      */
     public abstract void deliberate(List<Percept> ps);
+
+    /**
+     * Method the world calls to let the agent deliberate,
+     * with the percepts packed into a buffer that the world
+     * reuses for the next agent, so it is only good during
+     * the call.  By default this unpacks the buffer into a
+     * list and calls deliberate(List); agents that want to
+     * avoid making all those objects can override it.
+     * 
+     * @param ps Specification of the other agents in the world
+     *           from the agent's perspective
+     */
+    public void deliberate(PerceptBuffer ps) {
+        deliberate(ps.toList());
+    }
 }
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the agents in a world by id, so they can be found
+ * in constant time.  Ids handed out by FlockingReader count up
+ * from 1, so agents are kept in an array indexed by id; the few
+ * with ids that would make the array mostly empty, such as
+ * negative ids or ones far bigger than the number of agents,
+ * are kept in a hash map instead.
+ *
+ * Ids are meant to be unique within a world.  If two agents do
+ * share an id, the first one registered is the one found; the
+ * registry notes that it has turned agents away, so that when
+ * the agent found goes, its world can register another with
+ * the same id in its place.
+ *
+ * @version 1.0
+ */
+class AgentRegistry {
+
+    /** Agents by id, for ids that fit */
+    private Agent[] dense = new Agent[64];
+    /** Agents whose ids do not fit in the array */
+    private final Map<Integer, Agent> sparse = new HashMap<Integer, Agent>();
+    /** How many agents are registered */
+    private int size;
+    /** How many agents were turned away because another had their id */
+    private int shadowed;
+
+    /**
+     * Find the agent with an id
+     *
+     * @param id id of the agent
+     * @return the agent, or null if none is registered with that id
+     */
+    Agent get(int id) {
+        if (id >= 0 && id < dense.length && dense[id] != null)
+            return dense[id];
+        if (sparse.isEmpty())
+            return null;
+        return sparse.get(id);
+    }
+
+    /**
+     * Register an agent, unless one with the same id already is
+     *
+     * @param a agent to register
+     */
+    void add(Agent a) {
+        int id = a.getId();
+        if (get(id) != null) {
+            shadowed++;
+            return;
+        }
+        if (id >= dense.length && id < 2 * (size + dense.length))
+            dense = Arrays.copyOf(dense, Math.max(2 * dense.length, id + 1));
+        if (id >= 0 && id < dense.length)
+            dense[id] = a;
+        else
+            sparse.put(id, a);
+        size++;
+    }
+
+    /**
+     * Forget an agent, if it is the one registered with its id
+     *
+     * @param a agent to forget
+     * @return true if it was, and an agent that was turned away
+     *         may share its id and should be registered in its place
+     */
+    boolean remove(Agent a) {
+        int id = a.getId();
+        if (id >= 0 && id < dense.length && dense[id] == a) {
+            dense[id] = null;
+        } else if (!sparse.isEmpty() && sparse.get(id) == a) {
+            sparse.remove(id);
+        } else {
+            // one of those turned away, most likely
+            if (shadowed > 0)
+                shadowed--;
+            return false;
+        }
+        size--;
+        return shadowed > 0;
+    }
+
+    /**
+     * Register an agent that was turned away, in place of
+     * the agent with its id that has been removed
+     *
+     * @param a agent to register
+     */
+    void promote(Agent a) {
+        if (get(a.getId()) != null)
+            return;
+        shadowed--;
+        add(a);
+    }
+
+    /**
+     * Forget every agent
+     */
+    void clear() {
+        Arrays.fill(dense, null);
+        sparse.clear();
+        size = 0;
+        shadowed = 0;
+    }
+}
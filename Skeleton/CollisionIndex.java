@@ -0,0 +1,228 @@
+import java.util.Arrays;
+
+/**
+ * Broad phase for collision detection.
+ * A uniform grid over the torus world holding just the agents
+ * that something could run into: agents that obstruct others,
+ * and agents that others attack.  A moving agent asks for the
+ * agents near the box swept out by its motion, and only those
+ * are passed on to the exact test in World.detectCollision.
+ *
+ * Unlike SpatialGrid, entries can be moved from cell to cell
+ * as the simulation proceeds, since agents move one at a time
+ * during a step and later movers must see where earlier ones went.
+ * Agents are identified by their index in the array passed to
+ * rebuild, and queries report indices in increasing order.
+ *
+ * @version 1.0
+ */
+class CollisionIndex {
+
+    /** Never make more cells than this along either axis */
+    static final int MAX_CELLS_PER_SIDE = 256;
+
+    /** Width of the world the grid covers */
+    private double width;
+    /** Height of the world the grid covers */
+    private double height;
+    /** Number of cells horizontally */
+    private int cols;
+    /** Number of cells vertically */
+    private int rows;
+    /** Horizontal extent of each cell */
+    private double cellWidth;
+    /** Vertical extent of each cell */
+    private double cellHeight;
+    /** Half the size of the largest indexed agent */
+    private double reach;
+
+    /** First entry in each cell, -1 if the cell is empty */
+    private int[] head = new int[0];
+    /** Next entry in the same cell, by agent index, -1 at the end */
+    private int[] next = new int[0];
+    /** Previous entry in the same cell, by agent index, -1 at the start */
+    private int[] prev = new int[0];
+    /** Cell holding each agent, -1 if the agent is not indexed */
+    private int[] cellOf = new int[0];
+
+    /**
+     * Work out how many cells of at least the given size
+     * fit evenly along an axis of the given length.
+     *
+     * @param length circumference of the axis
+     * @param cellSize smallest acceptable cell extent
+     * @return number of cells, at least one
+     */
+    private static int cellsAlong(double length, double cellSize) {
+        if (!(cellSize > 0) || cellSize >= length)
+            return 1;
+        double n = Math.floor(length / cellSize);
+        return (int) Math.max(1, Math.min(n, MAX_CELLS_PER_SIDE));
+    }
+
+    /**
+     * Find the cell holding the point (x, y)
+     *
+     * @param x horizontal coordinate, anywhere on the torus
+     * @param y vertical coordinate, anywhere on the torus
+     * @return cell number
+     */
+    private int cell(double x, double y) {
+        int c = (int) (World.clampToCircle(x, width) / cellWidth);
+        int r = (int) (World.clampToCircle(y, height) / cellHeight);
+        if (c >= cols)
+            c = cols - 1;
+        if (r >= rows)
+            r = rows - 1;
+        return r * cols + c;
+    }
+
+    /**
+     * Put agent i at the front of cell c
+     */
+    private void link(int i, int c) {
+        cellOf[i] = c;
+        prev[i] = -1;
+        next[i] = head[c];
+        if (head[c] >= 0)
+            prev[head[c]] = i;
+        head[c] = i;
+    }
+
+    /**
+     * Take agent i out of whatever cell it is in
+     */
+    private void unlink(int i) {
+        int c = cellOf[i];
+        if (prev[i] >= 0)
+            next[prev[i]] = next[i];
+        else
+            head[c] = next[i];
+        if (next[i] >= 0)
+            prev[next[i]] = prev[i];
+        cellOf[i] = -1;
+    }
+
+    /**
+     * Index the agents whose include flag is set.
+     *
+     * @param agents agents in the world
+     * @param include which agents something could collide with
+     * @param count how many entries of agents are in use
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest acceptable cell extent
+     */
+    void rebuild(Agent[] agents, boolean[] include, int count, int width, int height, double cellSize) {
+        this.width = width;
+        this.height = height;
+        cols = cellsAlong(width, cellSize);
+        rows = cellsAlong(height, cellSize);
+        cellWidth = (double) width / cols;
+        cellHeight = (double) height / rows;
+
+        int cells = cols * rows;
+        if (head.length < cells)
+            head = new int[cells];
+        Arrays.fill(head, 0, cells, -1);
+        if (cellOf.length < count) {
+            next = new int[count];
+            prev = new int[count];
+            cellOf = new int[count];
+        }
+
+        reach = 0;
+        for (int i = 0; i < count; i++) {
+            if (include[i]) {
+                link(i, cell(agents[i].getLocX(), agents[i].getLocY()));
+                reach = Math.max(reach, (double) agents[i].getSize() / 2);
+            } else {
+                cellOf[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * Keep track of an agent that has changed position
+     *
+     * @param i index of the agent
+     * @param x new horizontal coordinate
+     * @param y new vertical coordinate
+     */
+    void moved(int i, double x, double y) {
+        if (i < 0 || i >= cellOf.length || cellOf[i] < 0)
+            return;
+        int c = cell(x, y);
+        if (c != cellOf[i]) {
+            unlink(i);
+            link(i, c);
+        }
+    }
+
+    /**
+     * Work out how many cells along one axis a range of coordinates covers
+     *
+     * @param lo smallest coordinate in the range
+     * @param hi largest coordinate in the range
+     * @param size extent of a cell
+     * @param n number of cells
+     * @return how many cells, at most n
+     */
+    private static int span(double lo, double hi, double size, int n) {
+        int count = (int) Math.floor(hi / size) - (int) Math.floor(lo / size) + 1;
+        return Math.min(count, n);
+    }
+
+    /**
+     * Work out the first cell along one axis that a range of coordinates covers
+     *
+     * @param lo smallest coordinate in the range
+     * @param size extent of a cell
+     * @param n number of cells
+     * @param span how many cells the range covers
+     * @return first cell covered
+     */
+    private static int first(double lo, double size, int n, int span) {
+        if (span >= n)
+            return 0;
+        return World.clampToCircle((int) Math.floor(lo / size), n);
+    }
+
+    /**
+     * Collect every indexed agent whose collision box could be
+     * crossed by a path from (x0, y0) to (x1, y1).
+     * The answer may include agents that the path misses,
+     * but never leaves out one that it hits.
+     * Several threads can query at once, as long as nobody
+     * changes the index meanwhile.
+     *
+     * @param x0 horizontal coordinate where path starts
+     * @param y0 vertical coordinate where path starts
+     * @param x1 horizontal coordinate where path ends
+     * @param y1 vertical coordinate where path ends
+     * @param result array to fill with agent indices, in increasing order;
+     *               must have room for every indexed agent
+     * @return number of entries written to result
+     */
+    int query(double x0, double y0, double x1, double y1, int[] result) {
+        double left = Math.min(x0, x1) - reach;
+        double top = Math.min(y0, y1) - reach;
+        int colSpan = span(left, Math.max(x0, x1) + reach, cellWidth, cols);
+        int rowSpan = span(top, Math.max(y0, y1) + reach, cellHeight, rows);
+        int firstCol = first(left, cellWidth, cols, colSpan);
+        int firstRow = first(top, cellHeight, rows, rowSpan);
+
+        int n = 0;
+        for (int i = 0; i < rowSpan; i++) {
+            int r = (firstRow + i) % rows;
+            for (int j = 0; j < colSpan; j++) {
+                int c = r * cols + (firstCol + j) % cols;
+                for (int k = head[c]; k >= 0; k = next[k]) {
+                    result[n++] = k;
+                }
+            }
+        }
+        Arrays.sort(result, 0, n);
+        return n;
+    }
+}
@@ -1,8 +1,6 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -359,30 +357,28 @@ public class Flocker extends Follower {
         }
         
         /**
-         * Draw on the screen
-         * @param x center of drawing
-         * @param y center of drawing
-         * @param theta heading direction
-         * @param world to control overlap
-         * @param g for display attributes
+         * Draw as an arrow into a snapshot of the world
+         * @param a where the arrow starts, and the heading it is relative to
+         * @param s snapshot being made
+         * @param color color of the arrow
          */
-        public void draw(DynamicAgentAttributes a, World w, Graphics g) {
+        public void draw(DynamicAgentAttributes a, Snapshot.Builder s, Color color) {
         	double segmentAngle = a.heading + getAngle();
         	double topArrowAngle = segmentAngle - 5 * Math.PI / 6;
         	double bottomArrowAngle = segmentAngle + 5 * Math.PI / 6;
         	double length = PIXELS_PER_UNIT_WEIGHT * getWeight();
         	double x1 = a.locX + length * Math.cos(segmentAngle);
         	double y1 = a.locY + length * Math.sin(segmentAngle);
-        	w.drawLine((int)Math.round(a.locX), (int)Math.round(a.locY),
-        			(int)Math.round(x1),(int)Math.round(y1), g);
-        	w.drawLine((int)Math.round(x1), (int)Math.round(y1),
+        	s.line((int)Math.round(a.locX), (int)Math.round(a.locY),
+        			(int)Math.round(x1),(int)Math.round(y1), color);
+        	s.line((int)Math.round(x1), (int)Math.round(y1),
         			(int)Math.round(x1 + ARROWHEAD_LENGTH * Math.cos(topArrowAngle)),
         			(int)Math.round(y1 + ARROWHEAD_LENGTH * Math.sin(topArrowAngle)),
-        			g);
-           	w.drawLine((int)Math.round(x1), (int)Math.round(y1),
+        			color);
+           	s.line((int)Math.round(x1), (int)Math.round(y1),
         			(int)Math.round(x1 + ARROWHEAD_LENGTH * Math.cos(bottomArrowAngle)),
         			(int)Math.round(y1 + ARROWHEAD_LENGTH * Math.sin(bottomArrowAngle)),
-        			g);
+        			color);
         }
     }
     
@@ -437,37 +433,43 @@ public class Flocker extends Follower {
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Snapshot.Builder s) {
 
         if (form.debug && lastStatus != null) {
            	form.debug = false;
-           	super.draw(g);
+           	super.draw(s);
            	form.debug = true;
            	
-           	g.setColor(Color.ORANGE);
-           	new WeightedForce(1, 0).draw(lastStatus, myWorld, g);
-        	g.setColor(Color.BLACK);
+           	new WeightedForce(1, 0).draw(lastStatus, s, Color.ORANGE);
         	if (safety != null && safety.getWeight() != 0)
-        		safety.draw(lastStatus, myWorld, g);
-        	g.setColor(Color.RED);
+        		safety.draw(lastStatus, s, Color.BLACK);
         	if (collision != null && collision.getWeight() != 0)
-        		collision.draw(lastStatus, myWorld, g);
-        	g.setColor(Color.GREEN);
+        		collision.draw(lastStatus, s, Color.RED);
         	if (alignment != null && alignment.getWeight() != 0)
-        		alignment.draw(lastStatus, myWorld, g);
-        	g.setColor(Color.BLUE);
+        		alignment.draw(lastStatus, s, Color.GREEN);
         	if (centering != null && centering.getWeight() != 0)
-        		centering.draw(lastStatus, myWorld, g);
-        	g.setColor(Color.YELLOW);
+        		centering.draw(lastStatus, s, Color.BLUE);
         	if (light != null && light.getWeight() != 0)
-        		light.draw(lastStatus, myWorld, g);
-        	g.setColor(Color.WHITE);
+        		light.draw(lastStatus, s, Color.YELLOW);
         	if (total != null && total.getWeight() != 0)
-        		total.draw(lastStatus, myWorld, g);
+        		total.draw(lastStatus, s, Color.WHITE);
         } else
-        	super.draw(g);	
+        	super.draw(s);	
     }
     
+    /**
+     * A flocker pays no attention to anything beyond its
+     * detection distance (or its separation distance,
+     * in case that is set larger).
+     *
+     * @return radius in pixels
+     */
+    @Override
+    public double getPerceptionRadius() {
+        return Math.min(super.getPerceptionRadius(),
+                Math.max(flocking.detectionDistance, flocking.separationDistance));
+    }
+
     /**
      * What are you interested in?  Here: just close lights
      *
@@ -788,7 +790,7 @@ public class Flocker extends Follower {
         WeightedForce az = new WeightedForce();
          for(Percept p : ps)
          {
-                if (p.getColor().getGreen()==254)
+                if (p.getColor().getGreen()==254 && p.getDistance() < flocking.detectionDistance)
                 {
                     az.addIn(new WeightedForce( 5*flocking.obstacleWeight*(flocking.detectionDistance/p.getDistance()),p.getAngle()*1));
                 }
@@ -866,9 +868,154 @@ public class Flocker extends Follower {
         f.addIn(affForce);
 
         
-        todo = new LinkedList<Intention>();
-        todo.add(new Intention(Intention.ActionType.TURN, f.getAngle()));
-        todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, form.maxSpeedForward - status.forwardV));
+        intend(Intention.ActionType.TURN, f.getAngle());
+        intend(Intention.ActionType.CHANGE_SPEED, form.maxSpeedForward - status.forwardV);
+    }
+
+    /**
+     * Same decision as deliberate(List), worked out in one pass
+     * over the percepts: each one is classified once and its
+     * contribution added straight into running sums for each force,
+     * with no Percept or WeightedForce objects made along the way.
+     * The sums are added up in the same order as the separate
+     * methods do, so the result is exactly the same.
+     * 
+     * Only a plain Flocker takes the single pass.  A subclass may
+     * have changed what maintainClearance and the other force
+     * methods do, so it goes through deliberate(List), which calls
+     * them, unless it overrides this method itself.
+     * 
+     * @param ps everything the agent can see
+     */
+    @Override
+    public void deliberate(PerceptBuffer ps) {
+        if (getClass() != Flocker.class) {
+            deliberate(ps.toList());
+            return;
+        }
+        double detection = flocking.detectionDistance;
+        double separation = flocking.separationDistance;
+
+        // obstacles: note that the weight compounds from one obstacle to the next
+        double safetyX = 0, safetyY = 0;
+        double safetyWt = flocking.obstacleWeight;
+        double collisionX = 0, collisionY = 0;
+        double alignmentX = 0, alignmentY = 0;
+        double centeringX = 0, centeringY = 0;
+        int neighborCount = 0;
+        int closestLight = -1;
+        double closestDistance = 0;
+        double greenX = 0, greenY = 0;
+
+        int n = ps.size();
+        for (int i = 0; i < n; i++) {
+            Percept.ObjectCategory c = ps.getObjectCategory(i);
+            double distance = ps.getDistance(i);
+            double angle = ps.getAngle(i);
+
+            if (c == Percept.ObjectCategory.BOID) {
+                if (flocking.avoidsCollisions && distance < separation) {
+                    double weight = flocking.separationWeight * (separation / distance);
+                    collisionX += weight * Math.cos(-angle);
+                    collisionY += weight * Math.sin(-angle);
+                }
+                if (distance < detection && distance > separation) {
+                    neighborCount++;
+                    if (flocking.alignsWithNeighbors) {
+                        double orientation = ps.getOrientation(i);
+                        alignmentX += flocking.alignmentWeight * Math.cos(orientation);
+                        alignmentY += flocking.alignmentWeight * Math.sin(orientation);
+                    }
+                    if (flocking.doesCentering) {
+                        centeringX += flocking.centeringWeight * Math.cos(angle);
+                        centeringY += flocking.centeringWeight * Math.sin(angle);
+                    }
+                }
+            } else if (c == Percept.ObjectCategory.OBSTACLE || c == Percept.ObjectCategory.PREDATOR) {
+                if (flocking.avoidsObstacles && distance < detection &&
+                        (angle >= 0 ? angle <= flocking.cone : angle >= -flocking.cone)) {
+                    double away = angle <= 0 ? flocking.cone : -flocking.cone;
+                    safetyWt = safetyWt * (flocking.clearance / distance);
+                    safetyX += safetyWt * Math.cos(away);
+                    safetyY += safetyWt * Math.sin(away);
+                }
+            } else if (c == Percept.ObjectCategory.LIGHT) {
+                if (flocking.followsLight && distance < detection &&
+                        (closestLight < 0 || distance < closestDistance)) {
+                    closestLight = i;
+                    closestDistance = distance;
+                }
+            }
+
+            if (((ps.getRGB(i) >> 8) & 0xFF) == 254 && distance < detection) {
+                double weight = 5 * flocking.obstacleWeight * (detection / distance);
+                greenX += weight * Math.cos(angle);
+                greenY += weight * Math.sin(angle);
+            }
+        }
+
+        if (neighborCount >= 1) {
+            double factor = 1.0 / neighborCount;
+            alignmentX *= factor;
+            alignmentY *= factor;
+            centeringX *= factor;
+            centeringY *= factor;
+        }
+
+        double lightX = 0, lightY = 0;
+        if (closestLight >= 0) {
+            double weight = flocking.followWeight * (detection / closestDistance);
+            double angle = ps.getAngle(closestLight);
+            lightX = 0 + weight * Math.cos(angle);
+            lightY = 0 + weight * Math.sin(angle);
+        }
+
+        // keep the forces for drawing, as deliberate(List) does
+        if (flocking.avoidsObstacles)
+            safety = record(safety, safetyX, safetyY);
+        if (flocking.avoidsCollisions)
+            collision = record(collision, collisionX, collisionY);
+        if (flocking.alignsWithNeighbors)
+            alignment = record(alignment, alignmentX, alignmentY);
+        if (flocking.doesCentering)
+            centering = record(centering, centeringX, centeringY);
+        if (flocking.followsLight)
+            light = record(light, lightX, lightY);
+
+        // inertia, then the rest in the order deliberate(List) adds them
+        double fx = 0 + 1 * Math.cos(0);
+        double fy = 0 + 1 * Math.sin(0);
+        fx += safetyX;
+        fy += safetyY;
+        fx += collisionX;
+        fy += collisionY;
+        fx += alignmentX;
+        fy += alignmentY;
+        fx += centeringX;
+        fy += centeringY;
+        fx += lightX;
+        fy += lightY;
+        fx += greenX;
+        fy += greenY;
+
+        intend(Intention.ActionType.TURN, World.displacementOnCircle(0, Math.atan2(fy, fx), 2 * Math.PI));
+        intend(Intention.ActionType.CHANGE_SPEED, form.maxSpeedForward - status.forwardV);
+    }
+
+    /**
+     * Store a force for drawing, reusing the old object if there is one
+     * 
+     * @param f force last stored, or null
+     * @param fx forward--backward force value
+     * @param fy right--left force value
+     * @return object holding the force
+     */
+    private static WeightedForce record(WeightedForce f, double fx, double fy) {
+        if (f == null)
+            f = new WeightedForce();
+        f.fx = fx;
+        f.fy = fy;
+        return f;
     }
 }
 
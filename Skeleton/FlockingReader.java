@@ -1,8 +1,19 @@
 import java.awt.Frame;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
@@ -21,7 +32,7 @@ public class FlockingReader extends DefaultHandler {
     /* Allows us to allocate unique identifiers to new objects */
     static int nextId = 1;
     
-    /* Links back to the window where events we read should be displayed */
+    /* Links back to the window where events we read should be displayed, null for none */
     private Frame frame;
     
     /* Used to construct error messages based on file position */
@@ -35,6 +46,38 @@ public class FlockingReader extends DefaultHandler {
     
     /* XML element beginning defaults */
     static final String DEFAULT_ELEMENT = "defaults";
+
+    /* XML element creating many agents at once */
+    static final String SPAWN_ELEMENT = "spawn";
+    /* Attribute naming the element for the kind of agent to spawn */
+    static final String SPAWN_TYPE = "type";
+    /* Attribute for how many agents to spawn */
+    static final String SPAWN_COUNT = "count";
+    /* Attribute for how to place spawned agents: uniform, grid or gaussian */
+    static final String SPAWN_LAYOUT = "layout";
+    static final String LAYOUT_UNIFORM = "uniform";
+    static final String LAYOUT_GRID = "grid";
+    static final String LAYOUT_GAUSSIAN = "gaussian";
+    /* Attributes for the region to place spawned agents in, the whole world by default */
+    static final String SPAWN_LEFT = "left";
+    static final String SPAWN_TOP = "top";
+    static final String SPAWN_RIGHT = "right";
+    static final String SPAWN_BOTTOM = "bottom";
+    /* Attribute for the standard deviation of a gaussian layout, around the middle of the region */
+    static final String SPAWN_SPREAD = "spread";
+    /* Attributes for the range of headings of spawned agents, in degrees */
+    static final String SPAWN_HEADING_MIN = "headingMin";
+    static final String SPAWN_HEADING_MAX = "headingMax";
+    /* Attributes for the range of speeds of spawned agents */
+    static final String SPAWN_SPEED_MIN = "speedMin";
+    static final String SPAWN_SPEED_MAX = "speedMax";
+    /* Attribute for the seed of the random numbers used in spawning */
+    static final String SPAWN_SEED = "seed";
+    /* Attributes of a spawn element that are not passed on to the agents */
+    private static final Set<String> SPAWN_PARAMS = new HashSet<String>(Arrays.asList(
+        SPAWN_TYPE, SPAWN_COUNT, SPAWN_LAYOUT, SPAWN_LEFT, SPAWN_TOP, SPAWN_RIGHT, SPAWN_BOTTOM,
+        SPAWN_SPREAD, SPAWN_HEADING_MIN, SPAWN_HEADING_MAX, SPAWN_SPEED_MIN, SPAWN_SPEED_MAX,
+        SPAWN_SEED, Agent.ID_PARAM));
     
     /**
      * Returns the world being specified by the file as it is parsed 
@@ -55,6 +98,23 @@ public class FlockingReader extends DefaultHandler {
         this.locator = locator;
     }
 
+    /**
+     * Make a namespace-aware SAX reader, as used for reading
+     * specifications, logs and trajectories alike
+     * 
+     * @return a new reader, with no handlers set
+     * @throws SAXException in case no reader can be made
+     */
+    static XMLReader newXMLReader() throws SAXException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            return factory.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
     /**
      * Pretty print the current position in the source file for
      * error messages.
@@ -178,7 +238,8 @@ public class FlockingReader extends DefaultHandler {
     /**
      * Constructor, keeps the passed frame to build UI for world
      * 
-     * @param f window where specified world appears
+     * @param f window where specified world appears,
+     *          null to read the world without displaying it
      */
     public FlockingReader(Frame f) {
         super();
@@ -239,12 +300,8 @@ public class FlockingReader extends DefaultHandler {
         }
         
         if (World.WAIT_NAME.equals(name)) {
-            int duration = getIntParam(atts, World.WAIT_INTERVAL, World.DEFAULT_WAIT, locator);
-            try { 
-                Thread.sleep(duration);
-            } catch (InterruptedException e) {
-                ;
-            }
+            // Replaying a log at the right pace is up to ReplayEngine,
+            // so reading never waits
             return;
         }
         
@@ -256,9 +313,48 @@ public class FlockingReader extends DefaultHandler {
             boolean runnable = getBoolParam(atts, World.RUNNABLE_PARAM, true, locator);
             boolean debug = getBoolParam(atts, World.DEBUG_PARAM, false, locator);
             world = new World(width, height, logfile, runnable, delay, debug);
-            frame.setSize(width,height);
-            frame.add(world);
-            frame.pack();
+            world.setTopologicalNeighbors(getIntParam(atts, World.NEIGHBORS_PARAM, 0, locator));
+            world.setParallelism(getIntParam(atts, World.THREADS_PARAM, 1, locator));
+            world.setSimultaneousMoves(getBoolParam(atts, World.SIMULTANEOUS_PARAM, false, locator));
+            world.getStats().setEnabled(getBoolParam(atts, World.STATS_PARAM, debug, locator));
+            world.setDeliberateSampling(getIntParam(atts, World.DELIBERATESAMPLE_PARAM,
+                    World.DEFAULT_DELIBERATE_SAMPLING, locator));
+            world.setFrameRate(getIntParam(atts, World.FRAMERATE_PARAM, 0, locator));
+            world.setCatchUp(getIntParam(atts, World.CATCHUP_PARAM, World.DEFAULT_CATCHUP, locator));
+            String flush = getStringParam(atts, World.LOGFLUSH_PARAM, null, locator);
+            if (flush != null) {
+                try {
+                    world.setLogFlush(LogWriter.FlushPolicy.parse(flush));
+                } catch (IllegalArgumentException e) {
+                    throw new SAXException(locationMsg(locator) + "Bad flush policy " + flush + " for " + World.LOGFLUSH_PARAM);
+                }
+            }
+            world.setLogQueue(getIntParam(atts, World.LOGQUEUE_PARAM, 0, locator));
+            world.setDeltaLog(getBoolParam(atts, World.LOGDELTA_PARAM, false, locator));
+            world.setLogTolerances(getDoubleParam(atts, World.LOGPOSITION_PARAM, 0.5, locator),
+                    getDoubleParam(atts, World.LOGHEADING_PARAM, 1.0, locator),
+                    getDoubleParam(atts, World.LOGSPEED_PARAM, 0.05, locator));
+            world.setKeyframeInterval(getIntParam(atts, World.LOGKEYFRAME_PARAM, 100, locator));
+            String format = getStringParam(atts, World.LOGFORMAT_PARAM, "xml", locator);
+            if (Trajectory.FORMAT_NAME.equalsIgnoreCase(format))
+                world.setBinaryLog(true);
+            else if (!"xml".equalsIgnoreCase(format))
+                throw new SAXException(locationMsg(locator) + "Bad log format " + format + " for " + World.LOGFORMAT_PARAM);
+            String overflow = getStringParam(atts, World.LOGOVERFLOW_PARAM, null, locator);
+            if (overflow != null) {
+                try {
+                    world.setLogOverflow(LogWriter.Overflow.parse(overflow));
+                } catch (IllegalArgumentException e) {
+                    throw new SAXException(locationMsg(locator) + "Bad overflow policy " + overflow + " for " + World.LOGOVERFLOW_PARAM);
+                }
+            }
+            if (frame != null) {
+                WorldView view = new WorldView(world);
+                world.setView(view);
+                frame.setSize(width,height);
+                frame.add(view);
+                frame.pack();
+            }
             return;
         }
         
@@ -267,84 +363,195 @@ public class FlockingReader extends DefaultHandler {
             return;
         } 
 
+        if (SPAWN_ELEMENT.equals(name)) {
+            if (inDefaults)
+                System.err.println(locationMsg(locator) + name + " element in defaults ignored");
+            else
+                spawn(atts);
+            return;
+        }
+
         int id = getIntParam(atts, Agent.ID_PARAM, nextId++, locator);
         Agent a = world.getAgent(id);
         if (a != null) {
-            if (Agent.UPDATE.equals(name))
-                a.update(atts, locator);    
-            else if (World.DIE_NAME.equals(name))
+            if (Agent.UPDATE.equals(name)) {
+                a.update(atts, locator);
+                world.agentChanged(a);
+            } else if (World.DIE_NAME.equals(name))
                 world.removeAgent(a);
             return;
         }   
         
+        if (inDefaults) {
+            if (!updateDefaults(name, atts))
+                System.err.println(locationMsg(locator) + "Unknown agent type " + name);
+        } else {
+            a = makeAgent(name, id, atts);
+            if (a == null)
+                System.err.println(locationMsg(locator) + "Unknown agent type " + name);
+            else
+                world.addAgent(a);
+        }
+    }
+
+    /**
+     * Change the defaults for a kind of agent
+     * 
+     * This is the place to add code if you have new kinds of agents
+     * that you want to create with suitable commands in the XML file,
+     * along with makeAgent.
+     * 
+     * @param name name of the element for that kind of agent
+     * @param atts new defaults
+     * @return false if there is no such kind of agent
+     * @throws SAXException in case of data format problems
+     */
+    private boolean updateDefaults(String name, Attributes atts) throws SAXException {
         if (LightSource.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                LightSource.defaultFixedAgentAttributes.update(atts, locator);
-                LightSource.defaultDynamicAgentAttributes.update(atts, locator);
-            } else {
-                LightSource l = new LightSource(world, id, atts, locator);
-                world.addAgent(l);
-            }
+            LightSource.defaultFixedAgentAttributes.update(atts, locator);
+            LightSource.defaultDynamicAgentAttributes.update(atts, locator);
         } else if (Obstacle.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                Obstacle.defaultFixedAgentAttributes.update(atts, locator);
-                Obstacle.defaultDynamicAgentAttributes.update(atts, locator);
-            } else {
-                Obstacle o = new Obstacle(world, id, atts, locator);
-                world.addAgent(o);
-            }
+            Obstacle.defaultFixedAgentAttributes.update(atts, locator);
+            Obstacle.defaultDynamicAgentAttributes.update(atts, locator);
         } else if (Runner.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                Runner.defaultDynamicAgentAttributes.update(atts, locator);
-                Runner.defaultFixedAgentAttributes.update(atts, locator);
-            } else {
-                Runner r = new Runner(world, id, atts, locator);
-                world.addAgent(r);
-            }
+            Runner.defaultDynamicAgentAttributes.update(atts, locator);
+            Runner.defaultFixedAgentAttributes.update(atts, locator);
         } else if (Follower.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                Follower.defaultDynamicAgentAttributes.update(atts, locator);
-                Follower.defaultFixedAgentAttributes.update(atts, locator);
-            } else {
-                Follower f = new Follower(world, id, atts, locator);
-                world.addAgent(f);
-            }
+            Follower.defaultDynamicAgentAttributes.update(atts, locator);
+            Follower.defaultFixedAgentAttributes.update(atts, locator);
         } else if (SmartFollower.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                SmartFollower.defaultDynamicAgentAttributes.update(atts, locator);
-                SmartFollower.defaultFixedAgentAttributes.update(atts, locator);
-            } else {
-                SmartFollower f = new SmartFollower(world, id, atts, locator);
-                world.addAgent(f);
-            }
+            SmartFollower.defaultDynamicAgentAttributes.update(atts, locator);
+            SmartFollower.defaultFixedAgentAttributes.update(atts, locator);
         } else if (Flocker.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                Flocker.defaultDynamicAgentAttributes.update(atts, locator);
-                Flocker.defaultFixedAgentAttributes.update(atts,locator);
-                Flocker.defaultFlockerAttributes.update(atts, locator);
-            } else {
-                Flocker f = new Flocker(world, id, atts, locator);
-                world.addAgent(f);
-            }
+            Flocker.defaultDynamicAgentAttributes.update(atts, locator);
+            Flocker.defaultFixedAgentAttributes.update(atts,locator);
+            Flocker.defaultFlockerAttributes.update(atts, locator);
         } else if (ReactivePredator.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                ReactivePredator.defaultDynamicAgentAttributes.update(atts, locator);
-                ReactivePredator.defaultFixedAgentAttributes.update(atts, locator);
-            } else {
-                ReactivePredator p = new ReactivePredator(world, id, atts, locator);
-                world.addAgent(p);
-            }
+            ReactivePredator.defaultDynamicAgentAttributes.update(atts, locator);
+            ReactivePredator.defaultFixedAgentAttributes.update(atts, locator);
+        } else if (ModelPredator.XML_NAME.equals(name)) {
+            ModelPredator.defaultDynamicAgentAttributes.update(atts, locator);
+            ModelPredator.defaultFixedAgentAttributes.update(atts, locator);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Make a new agent of some kind, using the defaults for that
+     * kind of agent where attributes are not given
+     * 
+     * This is the place to add code if you have new kinds of agents
+     * that you want to create with suitable commands in the XML file,
+     * along with updateDefaults.  A reader that wants agents of
+     * its own subclasses can override it.
+     * 
+     * @param name name of the element for that kind of agent
+     * @param id number to identify the agent in its world
+     * @param atts attributes of the agent
+     * @return the agent, not yet in the world, or null if there
+     *         is no such kind of agent
+     * @throws SAXException in case of data format problems
+     */
+    protected Agent makeAgent(String name, int id, Attributes atts) throws SAXException {
+        if (LightSource.XML_NAME.equals(name)) {
+            return new LightSource(world, id, atts, locator);
+        } else if (Obstacle.XML_NAME.equals(name)) {
+            return new Obstacle(world, id, atts, locator);
+        } else if (Runner.XML_NAME.equals(name)) {
+            return new Runner(world, id, atts, locator);
+        } else if (Follower.XML_NAME.equals(name)) {
+            return new Follower(world, id, atts, locator);
+        } else if (SmartFollower.XML_NAME.equals(name)) {
+            return new SmartFollower(world, id, atts, locator);
+        } else if (Flocker.XML_NAME.equals(name)) {
+            return new Flocker(world, id, atts, locator);
+        } else if (ReactivePredator.XML_NAME.equals(name)) {
+            return new ReactivePredator(world, id, atts, locator);
         } else if (ModelPredator.XML_NAME.equals(name)) {
-            if (inDefaults) {
-                ModelPredator.defaultDynamicAgentAttributes.update(atts, locator);
-                ModelPredator.defaultFixedAgentAttributes.update(atts, locator);
+            return new ModelPredator(world, id, atts, locator);
+        }
+        return null;
+    }
+
+    /**
+     * Create many agents of one kind at once, as a spawn element
+     * describes.  Each agent gets the element's other attributes,
+     * and the defaults for its kind where those are missing, like
+     * an agent given by an element of its own; then it is placed
+     * in the region according to the layout, and given a heading
+     * and speed drawn from the ranges, where those are given.
+     * The same seed always makes the same agents.
+     * 
+     * @param atts attributes of the spawn element
+     * @throws SAXException in case of data format problems
+     */
+    private void spawn(Attributes atts) throws SAXException {
+        String type = getStringParam(atts, SPAWN_TYPE, null, locator);
+        if (type == null)
+            throw new SAXException(locationMsg(locator) + SPAWN_ELEMENT + " without a " + SPAWN_TYPE);
+        int count = getIntParam(atts, SPAWN_COUNT, 1, locator);
+        String layout = getStringParam(atts, SPAWN_LAYOUT, LAYOUT_UNIFORM, locator);
+        if (!LAYOUT_UNIFORM.equals(layout) && !LAYOUT_GRID.equals(layout) && !LAYOUT_GAUSSIAN.equals(layout))
+            throw new SAXException(locationMsg(locator) + "Bad layout " + layout + " for " + SPAWN_LAYOUT);
+        double left = getDoubleParam(atts, SPAWN_LEFT, 0, locator);
+        double top = getDoubleParam(atts, SPAWN_TOP, 0, locator);
+        double right = getDoubleParam(atts, SPAWN_RIGHT, world.getWidth(), locator);
+        double bottom = getDoubleParam(atts, SPAWN_BOTTOM, world.getHeight(), locator);
+        double width = right - left;
+        double height = bottom - top;
+        double spread = getDoubleParam(atts, SPAWN_SPREAD, Math.min(width, height) / 6, locator);
+        boolean headings = getStringParam(atts, SPAWN_HEADING_MIN, null, locator) != null ||
+            getStringParam(atts, SPAWN_HEADING_MAX, null, locator) != null;
+        double headingMin = getDoubleParam(atts, SPAWN_HEADING_MIN, 0, locator) * Agent.DEGREES_TO_RADIANS;
+        double headingMax = getDoubleParam(atts, SPAWN_HEADING_MAX, 360, locator) * Agent.DEGREES_TO_RADIANS;
+        boolean speeds = getStringParam(atts, SPAWN_SPEED_MIN, null, locator) != null ||
+            getStringParam(atts, SPAWN_SPEED_MAX, null, locator) != null;
+        double speedMin = getDoubleParam(atts, SPAWN_SPEED_MIN, 0, locator);
+        double speedMax = getDoubleParam(atts, SPAWN_SPEED_MAX, speedMin, locator);
+        Random random = new Random(getIntParam(atts, SPAWN_SEED, 0, locator));
+
+        // a grid of cells with about the same shape as the region
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(count * Math.abs(width) / Math.max(Math.abs(height), 1e-9))));
+        int rows = Math.max(1, (count + columns - 1) / columns);
+
+        // only the attributes meant for the agents, in a plain list
+        // that is quick to look things up in many times over
+        AttributesImpl agentAtts = new AttributesImpl();
+        for (int i = 0; i < atts.getLength(); i++) {
+            if (!SPAWN_PARAMS.contains(atts.getLocalName(i)))
+                agentAtts.addAttribute(atts.getURI(i), atts.getLocalName(i), atts.getQName(i),
+                        atts.getType(i), atts.getValue(i));
+        }
+
+        List<Agent> made = new ArrayList<Agent>(Math.max(count, 0));
+        for (int i = 0; i < count; i++) {
+            Agent a = makeAgent(type, nextId++, agentAtts);
+            if (a == null) {
+                System.err.println(locationMsg(locator) + "Unknown agent type " + type + " in " + SPAWN_ELEMENT);
+                return;
+            }
+            double x, y;
+            if (LAYOUT_GRID.equals(layout)) {
+                x = left + width * (i % columns + 0.5) / columns;
+                y = top + height * (i / columns + 0.5) / rows;
+            } else if (LAYOUT_GAUSSIAN.equals(layout)) {
+                x = left + width / 2 + spread * random.nextGaussian();
+                y = top + height / 2 + spread * random.nextGaussian();
             } else {
-                ModelPredator p = new ModelPredator(world, id, atts, locator);
-                world.addAgent(p);
+                x = left + width * random.nextDouble();
+                y = top + height * random.nextDouble();
             }
-        } else {
-            System.err.println(locationMsg(locator) + "Unknown agent type " + name);
+            a.setLocX(World.clampToCircle(x, world.getWidth()));
+            a.setLocY(World.clampToCircle(y, world.getHeight()));
+            if (headings)
+                a.setHeading(World.clampToCircle(headingMin + (headingMax - headingMin) * random.nextDouble(), 2 * Math.PI));
+            if (speeds)
+                a.setForwardV(speedMin + (speedMax - speedMin) * random.nextDouble());
+            made.add(a);
         }
+        world.addAgents(made);
     }
 
     /**
@@ -365,7 +572,8 @@ public class FlockingReader extends DefaultHandler {
     {
         if ((World.XMLNS.equals(uri) || "".equals (uri))) {
             if (World.STATE_NAME.equals(name)) {
-                frame.setVisible(true);
+                if (frame != null)
+                    frame.setVisible(true);
                 if (world != null) {
                     world.repaint();
                 }
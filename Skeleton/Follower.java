@@ -1,8 +1,6 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -99,34 +97,13 @@ public class Follower extends Agent {
     /*
      * Draw a light follower as a solid triangle pointing in the direction
      * of the agent's heading.
-     * @param g object to control drawing mechanism 
-     * @see Agent#draw(java.awt.Graphics)
+     * @param s snapshot being made
+     * @see Agent#draw(Snapshot.Builder)
      */
     @Override
-    public void draw(Graphics g) {
-        int[] xpoints = new int[3];
-        int[] ypoints = new int[3];
-
-        double baseAngle = status.heading + Math.PI / 2;
-        double s = form.size;
-        int baseOffsetX = (int) Math.round(2 * s * Math.cos(baseAngle) / 3);
-        int baseOffsetY = (int) Math.round(2 * s * Math.sin(baseAngle) / 3);
-
-        int x0 = ((int) Math.round(status.locX - baseOffsetX / 2
-                - s * Math.cos(status.heading) / 3));
-        int y0 = ((int) Math.round(status.locY - baseOffsetY / 2
-                - s * Math.sin(status.heading) / 3));
-
-        xpoints[0] = x0;
-        xpoints[1] = x0 + baseOffsetX;
-        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(status.heading));
-
-        ypoints[0] = y0;
-        ypoints[1] = y0 + baseOffsetY;
-        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(status.heading));
-
-        g.setColor(form.color);
-        myWorld.fillPolygon(xpoints, ypoints, 3, g);
+    public void draw(Snapshot.Builder s) {
+        s.body(Snapshot.Shape.TRIANGLE, status.locX, status.locY, status.heading,
+                form.size, form.color);
 
         if (form.debug) {
             double length = 
@@ -134,8 +111,7 @@ public class Follower extends Agent {
                         myWorld.getHeight() * myWorld.getHeight()) / 2;
             int x1 = (int) Math.round(status.locX + length * Math.cos(status.heading));
             int y1 = (int) Math.round(status.locY + length * Math.sin(status.heading));
-            g.setColor(form.color);
-            myWorld.drawLine((int)Math.round(status.locX),(int)Math.round(status.locY),x1,y1,g);
+            s.line((int)Math.round(status.locX),(int)Math.round(status.locY),x1,y1,form.color);
         }
 
     }
@@ -245,11 +221,11 @@ public class Follower extends Agent {
     		// turn as much as you can without overshooting
     		double desiredAngle = p.getAngle();
 
-    		todo.add(new Intention(Intention.ActionType.TURN, desiredAngle));
-    		todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredSpeed - status.forwardV));
+    		intend(Intention.ActionType.TURN, desiredAngle);
+    		intend(Intention.ActionType.CHANGE_SPEED, desiredSpeed - status.forwardV);
     	} else {
     		// stop
-    		todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, -status.forwardV));
+    		intend(Intention.ActionType.CHANGE_SPEED, -status.forwardV);
     	}
     }
 
@@ -263,8 +239,6 @@ public class Follower extends Agent {
     public void deliberate(List<Percept> ps) {
         Percept closestSeen = bestTarget(ps);
 
-        todo = new LinkedList<Intention>();
-
         if (closestSeen != null) {
             steerTo(closestSeen);
         }
@@ -1,8 +1,6 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -74,14 +72,12 @@ public class LightSource extends Agent {
     /**
      * Draw a light source as a filled circle.
      * 
-     * @param g object to control drawing mechanism
+     * @param s snapshot being made
      */
     @Override
-    public void draw(Graphics g) {
-        g.setColor(form.color);
-        g.fillOval((int) Math.round(status.locX - form.size/2),
-                (int) Math.round(status.locY - form.size/2), 
-                form.size, form.size);
+    public void draw(Snapshot.Builder s) {
+        s.body(Snapshot.Shape.DISC, status.locX, status.locY, status.heading,
+                form.size, form.color);
     }
 
     /**
@@ -94,6 +90,16 @@ public class LightSource extends Agent {
         return Percept.ObjectCategory.LIGHT;
     }
 
+    /**
+     * An light source stays put unless it was given a speed
+     * 
+     * @return true if the light source is not moving
+     */
+    @Override
+    public boolean isStationary() {
+        return status.forwardV == 0;
+    }
+
     /**
      * Never do anything
      * 
@@ -101,7 +107,7 @@ public class LightSource extends Agent {
      */
     @Override
     public void deliberate(List<Percept> ps) {
-        todo = new LinkedList<Intention>();
+        // nothing to do
     }
 
 
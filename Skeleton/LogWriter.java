@@ -0,0 +1,467 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A log file that stays open for a whole simulation.
+ *
+ * Whoever writes to the log writes one record at a time, such as
+ * the state of the world after a step, into the writer given by
+ * out(), or into the binary stream given by data(), and then
+ * commits it.  Records are collected in memory
+ * and handed to the file whole, so that the file always ends at
+ * a record boundary, however the program stops.  When the records
+ * reach the disk depends on the flush policy.
+ *
+ * A record can also be handed over as a Record, which writes itself
+ * out later: with a background thread, it is turned into text or
+ * binary data by that thread, so the simulation need only collect
+ * the numbers it is made from.
+ *
+ * Records can be written to the file by a background thread,
+ * so that the simulation does not wait for the disk.  Committed
+ * records then wait in a queue of limited size.  When the queue
+ * is full, what happens depends on the overflow policy; records
+ * describing the state of the world can be dropped or merged
+ * under load, since the next state record describes everything
+ * again, but other records are always kept.
+ *
+ * @version 1.1
+ */
+class LogWriter {
+
+    /**
+     * When committed records are written out
+     */
+    static enum FlushPolicy {
+        /** Collect records in memory until there are a lot of them */
+        BUFFER,
+        /** Hand each record to the operating system as it is committed */
+        RECORD,
+        /** Also wait for each record to reach the disk */
+        SYNC;
+
+        /**
+         * Read a policy from its name in an XML specification
+         *
+         * @param name name of the policy, in any case
+         * @return policy with that name
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        static FlushPolicy parse(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    /**
+     * What to do with a state record when the queue is full
+     */
+    static enum Overflow {
+        /** Wait for room, so every record is written */
+        BLOCK,
+        /** Put the record in place of the newest state record in the queue */
+        COALESCE,
+        /** Throw the record away */
+        DROP;
+
+        /**
+         * Read a policy from its name in an XML specification
+         *
+         * @param name name of the policy, in any case
+         * @return policy with that name
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        static Overflow parse(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    /**
+     * A record that writes itself out when it reaches the file.
+     * It must not change once committed, since it may be written
+     * by the background thread.
+     */
+    static interface Record {
+        /**
+         * Write the record, either as text or as binary data, not both
+         *
+         * @param out where to write it as text
+         * @param data where to write it as binary data
+         * @throws IOException in case writing fails
+         */
+        void write(BufferedWriter out, DataOutputStream data) throws IOException;
+    }
+
+    /**
+     * A committed record waiting in the queue
+     */
+    private static class Entry {
+        /** Contents of the record, null if it still has to be written out */
+        byte[] bytes;
+        /** Record to write out, null if the contents are already written */
+        Record record;
+        /** Whether the record describes the state of the world */
+        final boolean state;
+
+        Entry(byte[] bytes, Record record, boolean state) {
+            this.bytes = bytes;
+            this.record = record;
+            this.state = state;
+        }
+    }
+
+    /** With the BUFFER policy, write records out once there are this many bytes */
+    static final int BATCH_LIMIT = 1 << 16;
+
+    /** The file being written */
+    private final FileOutputStream file;
+    /** When to write records out */
+    private final FlushPolicy policy;
+    /** How characters are encoded in the file */
+    private final Charset charset = Charset.defaultCharset();
+    /** The record being written */
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    /** Where the text of the record being written is put */
+    private final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(record, charset));
+    /** Where the binary data of the record being written is put */
+    private final DataOutputStream data = new DataOutputStream(record);
+    /** Records that have not been written out to the file yet */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /** Where the background thread writes the text of a Record */
+    private final BufferedWriter pendingOut = new BufferedWriter(new OutputStreamWriter(pending, charset));
+    /** Where the background thread writes the binary data of a Record */
+    private final DataOutputStream pendingData = new DataOutputStream(pending);
+    /** Whether the file has been closed */
+    private boolean closed;
+
+    /** How many records can wait in the queue, 0 to write records as they are committed */
+    private final int capacity;
+    /** What to do with state records when the queue is full */
+    private final Overflow overflow;
+    /** Committed records waiting for the background thread */
+    private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+    /** Background thread writing records, null if there is none */
+    private final Thread writer;
+    /** Whether the background thread should stop once the queue is empty */
+    private boolean draining;
+    /** What went wrong in the background thread, null if nothing */
+    private IOException failure;
+    /** How many state records were dropped because the queue was full */
+    private int dropped;
+    /** How many state records were merged into others because the queue was full */
+    private int coalesced;
+
+    /**
+     * Constructor: opens the file, replacing whatever was there,
+     * and writes records as they are committed
+     *
+     * @param name name of the file
+     * @param policy when records are written out
+     * @throws IOException in case the file cannot be opened
+     */
+    LogWriter(String name, FlushPolicy policy) throws IOException {
+        this(name, policy, 0, Overflow.BLOCK);
+    }
+
+    /**
+     * Constructor: opens the file, replacing whatever was there
+     *
+     * @param name name of the file
+     * @param policy when records are written out
+     * @param capacity how many committed records can wait to be
+     *                 written by a background thread; 0 for no
+     *                 background thread
+     * @param overflow what to do with state records when that many are waiting
+     * @throws IOException in case the file cannot be opened
+     */
+    LogWriter(String name, FlushPolicy policy, int capacity, Overflow overflow) throws IOException {
+        file = new FileOutputStream(name, false);
+        this.policy = policy;
+        this.capacity = Math.max(capacity, 0);
+        this.overflow = overflow;
+        if (this.capacity > 0) {
+            writer = new Thread("log writer") {
+                public void run() {
+                    drain();
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    /**
+     * @return where to write the next record
+     */
+    BufferedWriter out() {
+        return out;
+    }
+
+    /**
+     * A record should be written either as text, through out(),
+     * or as binary data, through data(), not both.
+     *
+     * @return where to write the next record as binary data
+     */
+    DataOutputStream data() {
+        return data;
+    }
+
+    /**
+     * Mark the end of a record written since the last commit,
+     * which must be kept no matter what.
+     *
+     * @throws IOException in case writing fails
+     */
+    void commit() throws IOException {
+        hand(false);
+    }
+
+    /**
+     * Mark the end of a record written since the last commit,
+     * which describes the state of the world and may be dropped
+     * or merged if the queue is full.
+     *
+     * @throws IOException in case writing fails
+     */
+    void commitState() throws IOException {
+        hand(true);
+    }
+
+    /**
+     * Commit a record that writes itself out,
+     * which must be kept no matter what.
+     *
+     * @param r the record
+     * @throws IOException in case writing fails
+     */
+    void commit(Record r) throws IOException {
+        hand(r, false);
+    }
+
+    /**
+     * Commit a record that writes itself out, which describes
+     * the state of the world and may be dropped or merged if
+     * the queue is full.
+     *
+     * @param r the record
+     * @throws IOException in case writing fails
+     */
+    void commitState(Record r) throws IOException {
+        hand(r, true);
+    }
+
+    /**
+     * @return how many state records were dropped so far
+     */
+    int getDropped() {
+        synchronized (queue) {
+            return dropped;
+        }
+    }
+
+    /**
+     * @return how many state records were merged into others so far
+     */
+    int getCoalesced() {
+        synchronized (queue) {
+            return coalesced;
+        }
+    }
+
+    /**
+     * Hand the record just written on towards the file
+     *
+     * @param state whether it describes the state of the world
+     * @throws IOException in case writing fails
+     */
+    private void hand(boolean state) throws IOException {
+        if (closed)
+            return;
+        out.flush();
+        byte[] bytes = record.toByteArray();
+        record.reset();
+        if (writer == null)
+            write(bytes);
+        else
+            enqueue(bytes, null, state);
+    }
+
+    /**
+     * Hand a record that writes itself out on towards the file,
+     * writing it out now if there is no background thread
+     *
+     * @param r the record
+     * @param state whether it describes the state of the world
+     * @throws IOException in case writing fails
+     */
+    private void hand(Record r, boolean state) throws IOException {
+        if (closed)
+            return;
+        if (writer == null) {
+            r.write(out, data);
+            hand(state);
+        } else {
+            enqueue(null, r, state);
+        }
+    }
+
+    /**
+     * Put a record in the queue for the background thread,
+     * dealing with a full queue according to the overflow policy
+     *
+     * @param bytes contents of the record, null if r writes it
+     * @param r record that writes itself out, null if bytes are given
+     * @param state whether it describes the state of the world
+     */
+    private void enqueue(byte[] bytes, Record r, boolean state) throws IOException {
+        synchronized (queue) {
+            while (queue.size() >= capacity && failure == null) {
+                if (state && overflow == Overflow.DROP) {
+                    dropped++;
+                    return;
+                }
+                if (state && overflow == Overflow.COALESCE) {
+                    Iterator<Entry> newestFirst = queue.descendingIterator();
+                    while (newestFirst.hasNext()) {
+                        Entry e = newestFirst.next();
+                        if (e.state) {
+                            e.bytes = bytes;
+                            e.record = r;
+                            coalesced++;
+                            return;
+                        }
+                    }
+                }
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting to log");
+                }
+            }
+            if (failure != null)
+                throw failure;
+            queue.addLast(new Entry(bytes, r, state));
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * What the background thread does: write records from
+     * the queue until told to stop and the queue is empty
+     */
+    private void drain() {
+        while (true) {
+            Entry e;
+            synchronized (queue) {
+                while (queue.isEmpty() && !draining) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty())
+                    return;
+                e = queue.pollFirst();
+                queue.notifyAll();
+            }
+            try {
+                if (e.record != null) {
+                    e.record.write(pendingOut, pendingData);
+                    pendingOut.flush();
+                    written();
+                } else {
+                    write(e.bytes);
+                }
+            } catch (IOException ex) {
+                synchronized (queue) {
+                    failure = ex;
+                    queue.clear();
+                    queue.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add a record to those waiting to be written out,
+     * and write them out if the flush policy says to
+     */
+    private void write(byte[] bytes) throws IOException {
+        pending.write(bytes, 0, bytes.length);
+        written();
+    }
+
+    /**
+     * Write out the records waiting, if the flush policy
+     * says to now that another has been added
+     */
+    private void written() throws IOException {
+        if (policy != FlushPolicy.BUFFER || pending.size() >= BATCH_LIMIT)
+            writeOut(policy == FlushPolicy.SYNC);
+    }
+
+    /**
+     * Hand records waiting to be written out to the file in one piece
+     *
+     * @param sync whether to wait for them to reach the disk
+     * @throws IOException in case writing fails
+     */
+    private void writeOut(boolean sync) throws IOException {
+        if (pending.size() > 0) {
+            pending.writeTo(file);
+            pending.reset();
+        }
+        if (sync)
+            file.getFD().sync();
+    }
+
+    /**
+     * Write out all committed records, wait for them to reach
+     * the disk, and close the file.  Anything written since
+     * the last commit is dropped.
+     *
+     * @throws IOException in case writing fails
+     */
+    void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (writer != null) {
+                synchronized (queue) {
+                    draining = true;
+                    queue.notifyAll();
+                }
+                boolean interrupted = false;
+                while (writer.isAlive()) {
+                    try {
+                        writer.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+                synchronized (queue) {
+                    if (failure != null)
+                        throw failure;
+                }
+            }
+            writeOut(true);
+        } finally {
+            file.close();
+        }
+    }
+}
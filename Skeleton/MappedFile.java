@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file read by mapping it into memory a window at a time,
+ * so that files of any size can be read, not only those under
+ * the 2GB a single mapping can hold.  Offsets in the file are
+ * longs; whatever is asked for is mapped when it is needed,
+ * and reading through the file in order maps each part once.
+ *
+ * Buffers handed out stay valid after the window moves on,
+ * so views onto the file can be kept as long as they are wanted.
+ *
+ * @version 1.0
+ */
+class MappedFile {
+
+    /** Most bytes mapped at once, unless a single piece asked for is bigger */
+    static final int WINDOW = 1 << 30;
+
+    /** Name of the file */
+    private final String name;
+    /** Length of the file */
+    private final long size;
+    /** The part of the file mapped now */
+    private MappedByteBuffer map;
+    /** Offset in the file where the mapped part starts */
+    private long mapStart;
+
+    /**
+     * Constructor: maps the start of a file
+     *
+     * @param name name of the file
+     * @throws IOException in case the file cannot be read
+     */
+    MappedFile(String name) throws IOException {
+        this.name = name;
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        try {
+            size = file.length();
+        } finally {
+            file.close();
+        }
+        mapAt(0, 0);
+    }
+
+    /**
+     * @return length of the file
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @param offset offset in the file, less than size()
+     * @return the byte there
+     */
+    byte get(long offset) {
+        return mapped(offset, 1).get((int) (offset - mapStart));
+    }
+
+    /**
+     * @param offset offset in the file, at least 4 bytes before the end
+     * @return the int starting there
+     */
+    int getInt(long offset) {
+        return mapped(offset, 4).getInt((int) (offset - mapStart));
+    }
+
+    /**
+     * Copy part of the file
+     *
+     * @param offset offset in the file to copy from
+     * @param bytes filled with the bytes starting there
+     */
+    void get(long offset, byte[] bytes) {
+        int done = 0;
+        while (done < bytes.length) {
+            int length = Math.min(bytes.length - done, WINDOW);
+            ByteBuffer b = mapped(offset + done, length).duplicate();
+            b.position((int) (offset + done - mapStart));
+            b.get(bytes, done, length);
+            done += length;
+        }
+    }
+
+    /**
+     * View part of the file as a buffer of its own, without copying it
+     *
+     * @param offset offset in the file of the part
+     * @param length length of the part
+     * @return the part, with position 0 and limit length
+     */
+    ByteBuffer slice(long offset, int length) {
+        ByteBuffer b = mapped(offset, length).duplicate();
+        int start = (int) (offset - mapStart);
+        b.position(start);
+        b.limit(start + length);
+        return b.slice();
+    }
+
+    /**
+     * Make sure part of the file is mapped
+     *
+     * @param offset offset in the file of the part
+     * @param length length of the part
+     * @return the mapping holding it
+     * @throws IndexOutOfBoundsException if the part runs off either end of the file
+     */
+    private MappedByteBuffer mapped(long offset, int length) {
+        if (offset >= mapStart && offset + length <= mapStart + map.limit())
+            return map;
+        if (offset < 0 || length < 0 || offset + length > size)
+            throw new IndexOutOfBoundsException(name + " has no bytes " + offset + " to " + (offset + length));
+        try {
+            mapAt(offset, length);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot map " + name + ": " + e.getMessage());
+        }
+        return map;
+    }
+
+    /**
+     * Map a window of the file, reopening it to do so,
+     * since mappings outlive the file being closed
+     *
+     * @param offset offset in the file the window starts at
+     * @param length least length of the window
+     */
+    private void mapAt(long offset, int length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        try {
+            long window = Math.min(Math.max(WINDOW, length), size - offset);
+            map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, window);
+            mapStart = offset;
+        } finally {
+            file.close();
+        }
+    }
+}
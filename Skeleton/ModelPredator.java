@@ -1,5 +1,4 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.List;
@@ -7,7 +6,6 @@ import java.util.List;
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
-import java.util.LinkedList;
 
 /**
  * A chasing agent that targets other boids.
@@ -134,7 +132,7 @@ public class ModelPredator extends Follower {
     }
 
     @Override
-    public void draw(Graphics g) {
+    public void draw(Snapshot.Builder s) {
         // visualize intersection
         if (lastTarget != null && form.debug) {
             double t = interceptTime(lastTarget);
@@ -145,8 +143,7 @@ public class ModelPredator extends Follower {
             int y = (int) Math.round(lastStatus.locY + lastTarget.getDistance() * Math.sin(abs));
             int itx = (int) Math.round(x + t * lastTarget.getSpeed() * Math.cos(heading));
             int ity = (int) Math.round(y + t * lastTarget.getSpeed() * Math.sin(heading));
-            g.setColor(lastTarget.getColor());
-            myWorld.drawLine(x, y, itx, ity, g);
+            s.line(x, y, itx, ity, lastTarget.getColor());
 
             double plannedAngle = (lastStatus.heading + 
                     interceptTurn(lastTarget) + lastTarget.getAngle());
@@ -154,11 +151,10 @@ public class ModelPredator extends Follower {
                     t * form.maxSpeedForward * Math.cos(plannedAngle));
             int myy = (int) Math.round(lastStatus.locY + 
                     t * form.maxSpeedForward * Math.sin(plannedAngle));
-            g.setColor(form.color);
-            myWorld.fillOval(myx - form.size/2, myy - form.size/2, form.size, form.size, g);
+            s.oval(myx - form.size/2, myy - form.size/2, form.size, form.color);
         }
 
-        super.draw(g);
+        super.draw(s);
     }
 
     @Override
@@ -177,8 +173,6 @@ public class ModelPredator extends Follower {
     @Override
     public void deliberate(List<Percept> ps) {
         Percept bestTarget = bestTarget(ps);
-        todo = new LinkedList<Intention>();
-
         if (bestTarget != null) {
             lastTarget = bestTarget;
 
@@ -186,10 +180,10 @@ public class ModelPredator extends Follower {
             	double desiredSpeed = form.maxSpeedForward;
             	double desiredAngle = interceptTurn(bestTarget) + bestTarget.getAngle();
 
-            	todo.add(new Intention(Intention.ActionType.TURN, desiredAngle));
-            	todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredSpeed - status.forwardV));
+            	intend(Intention.ActionType.TURN, desiredAngle);
+            	intend(Intention.ActionType.CHANGE_SPEED, desiredSpeed - status.forwardV);
             } else {
-            	todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, -status.forwardV));
+            	intend(Intention.ActionType.CHANGE_SPEED, -status.forwardV);
             }
         }
         else {
@@ -0,0 +1,368 @@
+/**
+ * A kd-tree over agent positions in the torus world, for finding
+ * the agents nearest to a given point.  Used when agents perceive
+ * a fixed number of neighbors rather than everything within a
+ * radius.
+ *
+ * Distances are measured the way World measures them, taking
+ * the shortest way around the torus, so the tree prunes a subtree
+ * only when every wrapped-around copy of its bounding box is too
+ * far away.  Equally distant agents are ranked by the order in
+ * which they joined the world, so answers do not depend on how
+ * the tree happened to be built.  A search can also be limited
+ * to a radius, so that agents that see only so far do not walk
+ * the whole tree looking for neighbors that are out of sight.
+ *
+ * The tree is rebuilt from scratch once per step, and searched
+ * through Search objects, one for each thread doing the searching.
+ *
+ * @version 1.0
+ */
+class NeighborTree {
+
+    /** Subtrees with at most this many agents are searched exhaustively */
+    static final int LEAF_SIZE = 8;
+
+    /** Width of the world */
+    private double width;
+    /** Height of the world */
+    private double height;
+
+    /** The agents in the tree */
+    private Agent[] agents = new Agent[0];
+    /** How many agents are indexed */
+    private int count;
+    /** Normalized horizontal coordinate of each agent */
+    private double[] xs = new double[0];
+    /** Normalized vertical coordinate of each agent */
+    private double[] ys = new double[0];
+    /** Agent indices, arranged so that each subtree is a contiguous range */
+    private int[] order = new int[0];
+
+    /** First position in order covered by each node */
+    private int[] nodeLo = new int[0];
+    /** Position in order just past each node */
+    private int[] nodeHi = new int[0];
+    /** Left child of each node, -1 for leaves */
+    private int[] left = new int[0];
+    /** Right child of each node, -1 for leaves */
+    private int[] right = new int[0];
+    /** Bounding box of each node */
+    private double[] minX = new double[0], maxX = new double[0];
+    private double[] minY = new double[0], maxY = new double[0];
+    /** How many nodes are in use */
+    private int nodes;
+
+    /**
+     * Index the first count agents by position, apart
+     * from any whose position is not a number
+     *
+     * @param agents agents to index
+     * @param count how many entries of agents are in use
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     */
+    void rebuild(Agent[] agents, int count, int width, int height) {
+        this.agents = agents;
+        this.width = width;
+        this.height = height;
+        if (xs.length < count) {
+            xs = new double[count];
+            ys = new double[count];
+            order = new int[count];
+            // leaves hold at least half of LEAF_SIZE, so there are fewer than count / 4 + 1
+            int most = 2 * (count / (LEAF_SIZE / 2) + 1);
+            nodeLo = new int[most];
+            nodeHi = new int[most];
+            left = new int[most];
+            right = new int[most];
+            minX = new double[most];
+            maxX = new double[most];
+            minY = new double[most];
+            maxY = new double[most];
+        }
+        // agents with no proper position can never be seen, and
+        // distances to them would not rank, so they are left out
+        int indexed = 0;
+        for (int i = 0; i < count; i++) {
+            xs[i] = World.clampToCircle(agents[i].getLocX(), this.width);
+            ys[i] = World.clampToCircle(agents[i].getLocY(), this.height);
+            if (!Double.isNaN(xs[i]) && !Double.isNaN(ys[i]))
+                order[indexed++] = i;
+        }
+        this.count = indexed;
+        nodes = 0;
+        if (indexed > 0)
+            build(0, indexed);
+    }
+
+    /**
+     * Make a node covering positions lo up to hi of order,
+     * splitting it in half along its wider side if it is big.
+     *
+     * @return node number
+     */
+    private int build(int lo, int hi) {
+        int node = nodes++;
+        nodeLo[node] = lo;
+        nodeHi[node] = hi;
+        double x0 = Double.POSITIVE_INFINITY, x1 = Double.NEGATIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            int a = order[i];
+            x0 = Math.min(x0, xs[a]);
+            x1 = Math.max(x1, xs[a]);
+            y0 = Math.min(y0, ys[a]);
+            y1 = Math.max(y1, ys[a]);
+        }
+        minX[node] = x0;
+        maxX[node] = x1;
+        minY[node] = y0;
+        maxY[node] = y1;
+
+        if (hi - lo <= LEAF_SIZE) {
+            left[node] = -1;
+            right[node] = -1;
+        } else {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi, mid, x1 - x0 >= y1 - y0 ? xs : ys);
+            left[node] = build(lo, mid);
+            right[node] = build(mid, hi);
+        }
+        return node;
+    }
+
+    /**
+     * Rearrange positions lo up to hi of order so that
+     * the agent at position k has the k-th smallest key,
+     * with smaller keys before it and larger ones after.
+     */
+    private void select(int lo, int hi, int k, double[] key) {
+        hi--;
+        while (lo < hi) {
+            double pivot = key[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key[order[i]] < pivot)
+                    i++;
+                while (key[order[j]] > pivot)
+                    j--;
+                if (i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    /**
+     * Shortest distance around a circle from q to the interval [lo, hi].
+     * Worked out the same way as distances to agents, so that an agent
+     * on the edge of the interval is never found to be nearer than it.
+     */
+    private static double gap(double q, double lo, double hi, double limit) {
+        if (q >= lo && q <= hi)
+            return 0;
+        return Math.min(Math.abs(World.displacementOnCircle(q, lo, limit)),
+                        Math.abs(World.displacementOnCircle(q, hi, limit)));
+    }
+
+    /**
+     * Is the neighbor (d1, a1) nearer than the neighbor (d2, a2)?
+     */
+    private boolean ranksBelow(double d1, int a1, double d2, int a2) {
+        return d1 < d2 || (d1 == d2 && agents[a1].joined < agents[a2].joined);
+    }
+
+    /**
+     * The state of a search for nearest neighbors.  Searches keep
+     * their own heaps, so several threads can search one tree at
+     * once, as long as nobody rebuilds it meanwhile.
+     */
+    class Search {
+
+        /** Squared distance of each neighbor found so far, as a max-heap */
+        private double[] heapDist = new double[0];
+        /** Agent index of each neighbor found so far, parallel to heapDist */
+        private int[] heapAgent = new int[0];
+        /** How many neighbors have been found so far */
+        private int found;
+        /** How many neighbors are wanted */
+        private int wanted;
+        /** Squared distance beyond which agents are left out */
+        private double limit;
+        /** Point being searched from */
+        private double qx, qy;
+
+        /**
+         * Consider agent a as one of the neighbors
+         */
+        private void offer(int a) {
+            double dx = World.displacementOnCircle(qx, xs[a], width);
+            double dy = World.displacementOnCircle(qy, ys[a], height);
+            double d = dx * dx + dy * dy;
+            if (d > limit)
+                return;
+            if (found < wanted) {
+                // add to the bottom of the heap and sift up
+                int i = found++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (!ranksBelow(heapDist[parent], heapAgent[parent], d, a))
+                        break;
+                    heapDist[i] = heapDist[parent];
+                    heapAgent[i] = heapAgent[parent];
+                    i = parent;
+                }
+                heapDist[i] = d;
+                heapAgent[i] = a;
+            } else if (ranksBelow(d, a, heapDist[0], heapAgent[0])) {
+                // replace the farthest neighbor and sift down
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= found)
+                        break;
+                    if (child + 1 < found &&
+                            ranksBelow(heapDist[child], heapAgent[child], heapDist[child + 1], heapAgent[child + 1]))
+                        child++;
+                    if (!ranksBelow(d, a, heapDist[child], heapAgent[child]))
+                        break;
+                    heapDist[i] = heapDist[child];
+                    heapAgent[i] = heapAgent[child];
+                    i = child;
+                }
+                heapDist[i] = d;
+                heapAgent[i] = a;
+            }
+        }
+
+        /**
+         * Look for neighbors in the subtree at node
+         */
+        private void search(int node) {
+            double gx = gap(qx, minX[node], maxX[node], width);
+            double gy = gap(qy, minY[node], maxY[node], height);
+            double g = gx * gx + gy * gy;
+            if (g > limit || (found == wanted && g > heapDist[0]))
+                return;
+
+            if (left[node] < 0) {
+                for (int i = nodeLo[node]; i < nodeHi[node]; i++) {
+                    offer(order[i]);
+                }
+            } else {
+                int l = left[node];
+                int r = right[node];
+                double lx = gap(qx, minX[l], maxX[l], width);
+                double ly = gap(qy, minY[l], maxY[l], height);
+                double rx = gap(qx, minX[r], maxX[r], width);
+                double ry = gap(qy, minY[r], maxY[r], height);
+                if (lx * lx + ly * ly <= rx * rx + ry * ry) {
+                    search(l);
+                    search(r);
+                } else {
+                    search(r);
+                    search(l);
+                }
+            }
+        }
+
+        /**
+         * Find the k agents nearest to (x, y), nearest first.
+         *
+         * @param x horizontal coordinate to search from
+         * @param y vertical coordinate to search from
+         * @param k how many agents to find
+         * @param result array to fill with agent indices; needs room for k entries
+         * @return how many entries of result were filled in:
+         *         k, or every agent if there are fewer than k
+         */
+        int nearest(double x, double y, int k, int[] result) {
+            return nearest(x, y, k, Double.POSITIVE_INFINITY, result);
+        }
+
+        /**
+         * Find the k agents nearest to (x, y) that are no further
+         * than a radius away, nearest first.  Agents a rounding
+         * error beyond the radius may be found too, so callers
+         * that care check the distance the way World does.
+         *
+         * @param x horizontal coordinate to search from
+         * @param y vertical coordinate to search from
+         * @param k how many agents to find
+         * @param radius how far away to look
+         * @param result array to fill with agent indices; needs room for k entries
+         * @return how many entries of result were filled in:
+         *         k, or every agent within the radius if there are fewer than k
+         */
+        int nearest(double x, double y, int k, double radius, int[] result) {
+            qx = World.clampToCircle(x, width);
+            qy = World.clampToCircle(y, height);
+            // distances here are worked out from normalized coordinates,
+            // so allow a little slack rather than miss an agent on the edge
+            limit = radius * radius * (1 + 1e-9) + 1e-9;
+            // from nowhere, nothing is near
+            wanted = Double.isNaN(qx) || Double.isNaN(qy) ? 0 : Math.min(k, count);
+            found = 0;
+            if (heapDist.length < wanted) {
+                heapDist = new double[wanted];
+                heapAgent = new int[wanted];
+            }
+            if (wanted > 0)
+                search(0);
+
+            // pull the farthest off the heap repeatedly, filling result from the back
+            int n = found;
+            for (int i = n - 1; i >= 0; i--) {
+                result[i] = heapAgent[0];
+                double d = heapDist[found - 1];
+                int a = heapAgent[found - 1];
+                found--;
+                int j = 0;
+                while (true) {
+                    int child = 2 * j + 1;
+                    if (child >= found)
+                        break;
+                    if (child + 1 < found &&
+                            ranksBelow(heapDist[child], heapAgent[child], heapDist[child + 1], heapAgent[child + 1]))
+                        child++;
+                    if (!ranksBelow(d, a, heapDist[child], heapAgent[child]))
+                        break;
+                    heapDist[j] = heapDist[child];
+                    heapAgent[j] = heapAgent[child];
+                    j = child;
+                }
+                if (found > 0) {
+                    heapDist[j] = d;
+                    heapAgent[j] = a;
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @return a new search, for finding neighbors in this tree
+     */
+    Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * @param i index of an agent in the tree
+     * @return that agent
+     */
+    Agent get(int i) {
+        return agents[i];
+    }
+}
@@ -1,8 +1,6 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -65,14 +63,12 @@ public class Obstacle extends Agent {
     /**
      * Draw the obstacle as a filled square
      * 
-     * @param g object to control drawing mechanism
+     * @param s snapshot being made
      */
     @Override
-    public void draw(Graphics g) {
-        g.setColor(form.color);
-        myWorld.fillRect((int) Math.round(status.locX - form.size / 2), 
-                (int) Math.round(status.locY - form.size / 2), 
-                form.size, form.size, g);
+    public void draw(Snapshot.Builder s) {
+        s.body(Snapshot.Shape.SQUARE, status.locX, status.locY, status.heading,
+                form.size, form.color);
     }
 
     /**
@@ -96,6 +92,16 @@ public class Obstacle extends Agent {
         return InteractiveBehavior.OBSTRUCT;
     }
 
+    /**
+     * An obstacle stays put unless it was given a speed
+     * 
+     * @return true if the obstacle is not moving
+     */
+    @Override
+    public boolean isStationary() {
+        return status.forwardV == 0;
+    }
+
     /**
      * Never do anything
      * 
@@ -103,6 +109,6 @@ public class Obstacle extends Agent {
      */
     @Override
     public void deliberate(List<Percept> ps) {
-        todo = new LinkedList<Intention>();
+        // nothing to do
     }
 }
@@ -0,0 +1,220 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for holding everything one agent perceives in a step,
+ * packed into parallel arrays rather than one Percept object
+ * per agent seen.  The world fills a buffer for each agent in
+ * turn, clearing and reusing it, so perception does not have
+ * to allocate anything once the arrays have grown big enough.
+ *
+ * Entry i of the buffer describes the same thing that a Percept
+ * would, and the accessors take the entry's index as an extra
+ * argument.  Use get or toList to turn entries back into Percepts.
+ *
+ * @version 1.0
+ */
+public class PerceptBuffer {
+
+    /** Object categories, indexed by ordinal */
+    private static final Percept.ObjectCategory[] CATEGORIES = Percept.ObjectCategory.values();
+
+    /** How many entries are in use */
+    private int size;
+    /** What was seen, as the ordinal of its category */
+    private byte[] category;
+    /** What color it had, as packed ARGB */
+    private int[] rgb;
+    /** How far perceived agent was */
+    private double[] distance;
+    /** Where perceived agent is relative to you (0 is forward, positive angle is to the right) */
+    private double[] angle;
+    /** What direction is perceived agent facing (0 is the same as you, etc...) */
+    private double[] orientation;
+    /** How fast is perceived agent going (negative if it's going in reverse) */
+    private double[] speed;
+
+    /**
+     * Constructor for an empty buffer
+     */
+    public PerceptBuffer() {
+        this(16);
+    }
+
+    /**
+     * Constructor for an empty buffer
+     *
+     * @param capacity how many entries to make room for initially
+     */
+    public PerceptBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        category = new byte[capacity];
+        rgb = new int[capacity];
+        distance = new double[capacity];
+        angle = new double[capacity];
+        orientation = new double[capacity];
+        speed = new double[capacity];
+    }
+
+    /**
+     * Make sure there is room for at least n entries
+     */
+    private void ensureCapacity(int n) {
+        if (n <= category.length)
+            return;
+        int capacity = Math.max(n, 2 * category.length);
+        byte[] c = new byte[capacity];
+        System.arraycopy(category, 0, c, 0, size);
+        category = c;
+        int[] f = new int[capacity];
+        System.arraycopy(rgb, 0, f, 0, size);
+        rgb = f;
+        distance = grow(distance, capacity);
+        angle = grow(angle, capacity);
+        orientation = grow(orientation, capacity);
+        speed = grow(speed, capacity);
+    }
+
+    /**
+     * Copy the entries in use into a bigger array
+     */
+    private double[] grow(double[] values, int capacity) {
+        double[] result = new double[capacity];
+        System.arraycopy(values, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Forget all entries, keeping the space they used
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return how many entries are in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add an entry at the end of the buffer
+     *
+     * @param c what was seen
+     * @param f what color it had, as packed ARGB
+     * @param dis how far perceived agent was
+     * @param a where perceived agent is relative to you
+     * @param h what direction perceived agent is facing
+     * @param s how fast perceived agent is going
+     */
+    public void add(Percept.ObjectCategory c, int f, double dis, double a, double h, double s) {
+        ensureCapacity(size + 1);
+        category[size] = (byte) c.ordinal();
+        rgb[size] = f;
+        distance[size] = dis;
+        angle[size] = a;
+        orientation[size] = h;
+        speed[size] = s;
+        size++;
+    }
+
+    /**
+     * Add an entry at the end of the buffer
+     *
+     * @param p percept to copy
+     */
+    public void add(Percept p) {
+        add(p.getObjectCategory(), p.getColor().getRGB(), p.getDistance(),
+                p.getAngle(), p.getOrientation(), p.getSpeed());
+    }
+
+    /**
+     * Accessor
+     * @param i index of entry
+     * @return what was seen
+     */
+    public Percept.ObjectCategory getObjectCategory(int i) {
+        return CATEGORIES[category[i]];
+    }
+
+    /**
+     * Accessor
+     * @param i index of entry
+     * @return color of what was seen, as packed ARGB
+     */
+    public int getRGB(int i) {
+        return rgb[i];
+    }
+
+    /**
+     * Accessor; allocates, so prefer getRGB in loops
+     * @param i index of entry
+     * @return color of what was seen
+     */
+    public Color getColor(int i) {
+        return new Color(rgb[i], true);
+    }
+
+    /**
+     * Accessor
+     * @param i index of entry
+     * @return how far perceived agent was
+     */
+    public double getDistance(int i) {
+        return distance[i];
+    }
+
+    /**
+     * Accessor
+     * @param i index of entry
+     * @return where perceived agent is relative to you
+     */
+    public double getAngle(int i) {
+        return angle[i];
+    }
+
+    /**
+     * Accessor
+     * @param i index of entry
+     * @return what direction perceived agent is facing
+     */
+    public double getOrientation(int i) {
+        return orientation[i];
+    }
+
+    /**
+     * Accessor
+     * @param i index of entry
+     * @return how fast perceived agent is going
+     */
+    public double getSpeed(int i) {
+        return speed[i];
+    }
+
+    /**
+     * Make a Percept object describing one entry
+     *
+     * @param i index of entry
+     * @return a new percept, independent of the buffer
+     */
+    public Percept get(int i) {
+        return new Percept(getObjectCategory(i), getColor(i),
+                distance[i], angle[i], orientation[i], speed[i]);
+    }
+
+    /**
+     * Make a list of Percept objects describing the entries,
+     * for agents that deliberate over lists of percepts.
+     *
+     * @return a new list of new percepts, in the order of the entries
+     */
+    public List<Percept> toList() {
+        List<Percept> ps = new ArrayList<Percept>(size);
+        for (int i = 0; i < size; i++) {
+            ps.add(get(i));
+        }
+        return ps;
+    }
+}
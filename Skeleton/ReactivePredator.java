@@ -1,8 +1,6 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -116,10 +114,10 @@ public class ReactivePredator extends Follower {
      * Specialized drawing method in case you want debugging help
      */
     @Override
-    public void draw(Graphics g) {
+    public void draw(Snapshot.Builder s) {
         // TBC: Debug visualization here
 
-        super.draw(g);
+        super.draw(s);
     }
 
     /**
@@ -140,8 +138,6 @@ public class ReactivePredator extends Follower {
     public void deliberate(List<Percept> ps) {
         Percept closestSeen = bestTarget(ps);
 
-        todo = new LinkedList<Intention>();
-
         if (closestSeen != null) {
             steerTo(closestSeen);
         }
@@ -0,0 +1,512 @@
+import java.awt.Frame;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * ReplayEngine shows a log of the history of a world, either
+ * XML or binary, at any step, in any order.
+ *
+ * When it opens a log, it makes an index giving where in the
+ * file the state after each step starts and ends, and which
+ * states are keyframes, describing every agent.  Every state
+ * of an ordinary log is a keyframe; a delta log has them every
+ * so many steps.  To show a step, the engine goes back to the
+ * nearest keyframe and reads forward from there, or just reads
+ * forward from the step it is showing if that is nearer, so
+ * seeking takes about the same time wherever it goes.
+ *
+ * Logs are mapped into memory a window at a time, as MappedFile,
+ * so logs over 2GB can be replayed.
+ *
+ * The engine never waits while reading; play() paces itself.
+ * The index understands logs as worlds write them; agents that
+ * appear in a log after its first state are ignored.
+ *
+ * @version 1.0
+ */
+public class ReplayEngine {
+
+    /** The world being replayed */
+    private final World world;
+    /** Window the world is shown in, null for none */
+    private final Frame frame;
+    /** XML log mapped into memory, null for a binary log */
+    private final MappedFile xml;
+    /** Binary log, null for an XML log */
+    private final TrajectoryReader binary;
+    /** Agents in the first state, in order */
+    private final Agent[] cast;
+    /** Agents in the first state, by id */
+    private final Map<Integer, Agent> byId = new HashMap<Integer, Agent>();
+    /** x, y, heading and speed of each agent in the first state */
+    private final double[][] initial;
+
+    /** How many states are in the index, counting the first */
+    private int count;
+    /** Step after which each state was logged */
+    private int[] steps = new int[64];
+    /** Offset in the file of the start of each state */
+    private long[] starts = new long[64];
+    /** Offset in the file of the end of each state */
+    private long[] ends = new long[64];
+    /** Index of the nearest keyframe at or before each state */
+    private int[] keyframes = new int[64];
+
+    /** Index of the state the world is showing */
+    private int current;
+
+    /**
+     * Constructor: opens a log and shows its first state
+     *
+     * @param log name of the XML or binary log
+     * @param frame window to show the world in, null for none
+     * @throws SAXException in case the log is not valid
+     * @throws IOException in case the log cannot be read
+     */
+    public ReplayEngine(String log, Frame frame) throws SAXException, IOException {
+        this.frame = frame;
+        if (Trajectory.isTrajectory(log)) {
+            xml = null;
+            binary = new TrajectoryReader(log);
+            world = parse(new InputSource(new StringReader(describeStart(binary))));
+            indexBinary();
+        } else {
+            binary = null;
+            xml = new MappedFile(log);
+            indexXML();
+            if (count == 0) {
+                // nothing to replay: just show what the file describes
+                FileReader r = new FileReader(log);
+                try {
+                    world = parse(new InputSource(r));
+                } finally {
+                    r.close();
+                }
+                add(world == null ? 0 : world.getStepCount(), 0, 0, true);
+            } else {
+                world = parse(wrap(0, ends[0], null));
+            }
+        }
+        if (world == null)
+            throw new SAXException(log + " describes no world");
+        List<Agent> agents = world.getAgents();
+        cast = agents.toArray(new Agent[agents.size()]);
+        initial = new double[cast.length][];
+        for (int i = 0; i < cast.length; i++) {
+            Agent a = cast[i];
+            byId.put(a.getId(), a);
+            initial[i] = new double[] { a.getLocX(), a.getLocY(), a.getHeading(), a.getForwardV() };
+        }
+        current = 0;
+        world.setStepCount(steps[0]);
+    }
+
+    /**
+     * Check whether a file is a log to replay rather than a world
+     * to simulate: a binary log, or an XML world that is not runnable
+     *
+     * @param name name of the file
+     * @return true if the file is a log
+     * @throws IOException in case the file cannot be read
+     */
+    public static boolean isLog(String name) throws IOException {
+        if (Trajectory.isTrajectory(name))
+            return true;
+        final boolean[] runnable = { true };
+        XMLReader xr;
+        FileReader r = new FileReader(name);
+        try {
+            xr = FlockingReader.newXMLReader();
+            xr.setContentHandler(new DefaultHandler() {
+                public void startElement(String uri, String name, String qName, Attributes atts)
+                throws SAXException {
+                    if (World.XML_NAME.equals(name))
+                        runnable[0] = FlockingReader.getBoolParam(atts, World.RUNNABLE_PARAM, true, null);
+                    // the world element comes first, so stop reading
+                    throw new SAXException("");
+                }
+            });
+            xr.parse(new InputSource(r));
+        } catch (SAXException e) {
+            // stopped, or not valid, which the full reading will report
+        } finally {
+            r.close();
+        }
+        return !runnable[0];
+    }
+
+    /**
+     * @return the world being replayed
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return step of the first state in the log
+     */
+    public int getFirstStep() {
+        return steps[0];
+    }
+
+    /**
+     * @return step of the last state in the log
+     */
+    public int getLastStep() {
+        return steps[count - 1];
+    }
+
+    /**
+     * @return step the world is showing
+     */
+    public int getStep() {
+        return steps[current];
+    }
+
+    /**
+     * Show the world as it was after a step: the last state
+     * logged at or before the step, or the first state
+     *
+     * @param step step to show
+     * @throws SAXException in case the log is not valid
+     */
+    public void seek(int step) throws SAXException {
+        int i = Arrays.binarySearch(steps, 0, count, step);
+        if (i < 0)
+            i = Math.max(-i - 2, 0);
+        if (i == current)
+            return;
+        int k = keyframes[i];
+        if (current < i && k <= current) {
+            read(ends[current], ends[i], false);
+        } else if (k == 0) {
+            restart();
+            read(ends[0], ends[i], false);
+        } else {
+            world.removeAllAgents();
+            read(starts[k], ends[i], true);
+        }
+        current = i;
+        world.setStepCount(steps[i]);
+    }
+
+    /**
+     * Play the log from the step being shown to one end,
+     * showing a state every World.DEFAULT_WAIT milliseconds
+     *
+     * @param speed how many steps to move on each time; negative
+     *              to play backward, fractions to play slowly
+     * @throws SAXException in case the log is not valid
+     */
+    public void play(double speed) throws SAXException {
+        if (speed == 0)
+            return;
+        double at = getStep();
+        while (true) {
+            show();
+            if (speed > 0 ? current == count - 1 : current == 0)
+                return;
+            try {
+                Thread.sleep(World.DEFAULT_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            at += speed;
+            seek((int) Math.floor(at));
+        }
+    }
+
+    /**
+     * Redisplay the world, if there is a window
+     */
+    private void show() {
+        if (frame != null) {
+            frame.setVisible(true);
+            world.repaint();
+        }
+    }
+
+    /**
+     * Put every agent back where it was in the first state
+     */
+    private void restart() {
+        world.removeAllAgents();
+        for (int i = 0; i < cast.length; i++) {
+            Agent a = cast[i];
+            a.setLocX(initial[i][0]);
+            a.setLocY(initial[i][1]);
+            a.setHeading(initial[i][2]);
+            a.setForwardV(initial[i][3]);
+            world.addAgent(a);
+        }
+    }
+
+    /**
+     * Apply the records in part of the log to the world
+     *
+     * @param from offset of the first record
+     * @param to offset just after the last record
+     * @param full whether the first record is a keyframe that says
+     *             which agents are in the world
+     */
+    private void read(long from, long to, boolean full) throws SAXException {
+        if (xml != null) {
+            Updater handler = new Updater(full);
+            try {
+                XMLReader xr = FlockingReader.newXMLReader();
+                xr.setContentHandler(handler);
+                xr.setErrorHandler(handler);
+                xr.parse(wrap(from, to, World.XMLNS));
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            return;
+        }
+        binary.setPosition(from);
+        int tag;
+        while (binary.getPosition() < to && (tag = binary.next()) != 0) {
+            if (tag == Trajectory.DEATH) {
+                Agent a = byId.get(binary.getDeadId());
+                if (a != null)
+                    world.removeAgent(a);
+                continue;
+            }
+            TrajectoryReader.Frame f = binary.getFrame();
+            for (int i = 0; i < f.size(); i++) {
+                Agent a = byId.get(f.getId(i));
+                if (a == null)
+                    continue;
+                if (full)
+                    world.addAgent(a);
+                a.setLocX(f.getX(i));
+                a.setLocY(f.getY(i));
+                a.setHeading(World.clampToCircle(f.getHeading(i) * Agent.DEGREES_TO_RADIANS, 2 * Math.PI));
+                a.setForwardV(f.getSpeed(i));
+                world.agentChanged(a);
+            }
+            full = false;
+        }
+    }
+
+    /**
+     * Handler applying the states and deaths in part of an XML log
+     * to the world, as FlockingReader would
+     */
+    private class Updater extends DefaultHandler {
+        /** Whether the state being read says which agents are in the world */
+        private boolean full;
+        /** Used to construct error messages based on file position */
+        private Locator locator;
+
+        Updater(boolean full) {
+            this.full = full;
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        public void startElement(String uri, String name, String qName, Attributes atts)
+        throws SAXException {
+            if (Agent.UPDATE.equals(name)) {
+                Agent a = byId.get(FlockingReader.getIntParam(atts, Agent.ID_PARAM, 0, locator));
+                if (a == null)
+                    return;
+                if (full)
+                    world.addAgent(a);
+                a.update(atts, locator);
+                world.agentChanged(a);
+            } else if (World.DIE_NAME.equals(name)) {
+                Agent a = byId.get(FlockingReader.getIntParam(atts, Agent.ID_PARAM, 0, locator));
+                if (a != null)
+                    world.removeAgent(a);
+            }
+        }
+
+        public void endElement(String uri, String name, String qName) {
+            if (World.STATE_NAME.equals(name))
+                full = false;
+        }
+    }
+
+    /**
+     * Make the world, and its agents, from an XML description
+     */
+    private World parse(InputSource in) throws SAXException, IOException {
+        XMLReader xr = FlockingReader.newXMLReader();
+        FlockingReader handler = new FlockingReader(frame);
+        xr.setContentHandler(handler);
+        xr.setErrorHandler(handler);
+        xr.parse(in);
+        return handler.getWorld();
+    }
+
+    /**
+     * Make part of the XML log into a document of its own
+     *
+     * @param from offset of the start of the part
+     * @param to offset of the end of the part
+     * @param namespace namespace of a world element to put the part in,
+     *                  null if the part starts the log
+     * @return the document, ready to read
+     */
+    private InputSource wrap(long from, long to, String namespace) throws IOException {
+        if (to - from > Integer.MAX_VALUE - 128)
+            throw new IOException("state too big to read");
+        ByteArrayOutputStream doc = new ByteArrayOutputStream((int) (to - from) + 128);
+        if (namespace != null)
+            doc.write(("<" + World.XML_NAME + " xmlns=\"" + namespace + "\">").getBytes("UTF-8"));
+        byte[] part = new byte[(int) (to - from)];
+        xml.get(from, part);
+        doc.write(part);
+        doc.write(("</" + World.XML_NAME + ">").getBytes("UTF-8"));
+        return new InputSource(new ByteArrayInputStream(doc.toByteArray()));
+    }
+
+    /**
+     * Describe the start of a binary log as an XML document
+     */
+    private static String describeStart(TrajectoryReader in) throws IOException {
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+        World.logHeader(out, in.getWidth(), in.getHeight(), false);
+        World.logStateStart(out, in.getFirstStep(), true);
+        for (int i = 0; i < in.getAgentCount(); i++) {
+            out.write(in.getAgentXML(i));
+        }
+        World.logStateEnd(out);
+        out.write("</" + World.XML_NAME + ">\n");
+        out.flush();
+        return text.toString();
+    }
+
+    /**
+     * Index the frames of a binary log.  The header is the first state.
+     */
+    private void indexBinary() {
+        binary.rewind();
+        add(binary.getFirstStep(), binary.getPosition(), binary.getPosition(), true);
+        int tag;
+        while ((tag = binary.next()) != 0) {
+            if (tag == Trajectory.FRAME) {
+                TrajectoryReader.Frame f = binary.getFrame();
+                add(f.getStep(), binary.getRecordStart(), binary.getPosition(), f.isKeyframe());
+            }
+        }
+    }
+
+    /**
+     * Index the states of an XML log by looking for their tags,
+     * without parsing the rest
+     */
+    private void indexXML() {
+        boolean delta = false;
+        long limit = xml.size();
+        long open = -1;
+        int step = 0;
+        boolean keyframe = false;
+        for (long i = 0; i < limit; i++) {
+            if (xml.get(i) != '<')
+                continue;
+            long close = i;
+            while (close < limit && xml.get(close) != '>')
+                close++;
+            if (close == limit)
+                break;
+            if (isTag(i + 1, World.XML_NAME, close)) {
+                delta = "true".equals(attribute(i, close, World.LOGDELTA_PARAM));
+            } else if (isTag(i + 1, World.STATE_NAME, close)) {
+                open = i;
+                String s = attribute(i, close, World.STEP_NAME);
+                step = s == null ? step : Integer.parseInt(s.trim());
+                keyframe = "true".equals(attribute(i, close, World.KEYFRAME_NAME));
+                if (xml.get(close - 1) == '/')
+                    add(step, open, close + 1, count == 0 || !delta || keyframe);
+            } else if (open >= 0 && xml.get(i + 1) == '/' && isTag(i + 2, World.STATE_NAME, close)) {
+                add(step, open, close + 1, count == 0 || !delta || keyframe);
+                open = -1;
+            }
+            i = close;
+        }
+    }
+
+    /**
+     * Check whether the name of a tag starts at an offset
+     */
+    private boolean isTag(long at, String name, long close) {
+        if (at + name.length() > close)
+            return false;
+        for (int j = 0; j < name.length(); j++) {
+            if (xml.get(at + j) != name.charAt(j))
+                return false;
+        }
+        char after = (char) xml.get(at + name.length());
+        return after == '>' || after == '/' || Character.isWhitespace(after);
+    }
+
+    /**
+     * Find the value of an attribute in a tag
+     *
+     * @return the value, or null if the tag does not have the attribute
+     */
+    private String attribute(long open, long close, String name) {
+        byte[] tag = new byte[(int) (close - open)];
+        xml.get(open, tag);
+        String text = new String(tag, Trajectory.UTF8);
+        int at = 0;
+        while ((at = text.indexOf(name, at)) >= 0) {
+            int end = at + name.length();
+            if (Character.isWhitespace(text.charAt(at - 1))) {
+                int eq = end;
+                while (eq < text.length() && Character.isWhitespace(text.charAt(eq)))
+                    eq++;
+                if (eq < text.length() && text.charAt(eq) == '=') {
+                    int q = eq + 1;
+                    while (q < text.length() && Character.isWhitespace(text.charAt(q)))
+                        q++;
+                    if (q < text.length()) {
+                        int stop = text.indexOf(text.charAt(q), q + 1);
+                        if (stop > q)
+                            return text.substring(q + 1, stop);
+                    }
+                }
+            }
+            at = end;
+        }
+        return null;
+    }
+
+    /**
+     * Add a state to the index
+     */
+    private void add(int step, long start, long end, boolean keyframe) {
+        if (count == steps.length) {
+            steps = Arrays.copyOf(steps, 2 * count);
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+            keyframes = Arrays.copyOf(keyframes, 2 * count);
+        }
+        steps[count] = step;
+        starts[count] = start;
+        ends[count] = end;
+        keyframes[count] = keyframe || count == 0 ? count : keyframes[count - 1];
+        count++;
+    }
+}
@@ -1,8 +1,6 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -99,37 +97,13 @@ public class Runner extends Agent {
     /*
      * Draw a runner as a triangle pointing in the direction
      * of the agent's heading.
-     * @param g object to control drawing mechanism 
-     * @see Agent#draw(java.awt.Graphics)
+     * @param s snapshot being made
+     * @see Agent#draw(Snapshot.Builder)
      */
     @Override
-    public void draw(Graphics g) {
-        int[] xpoints = new int[4];
-        int[] ypoints = new int[4];
-
-        double baseAngle = status.heading + Math.PI / 2;
-        double s = form.size;
-
-        int baseOffsetX = (int) Math.round(2 * s * Math.cos(baseAngle) / 3);
-        int baseOffsetY = (int) Math.round(2 * s * Math.sin(baseAngle) / 3);
-
-        int x0 = ((int) Math.round(status.locX - baseOffsetX / 2
-                - s * Math.cos(status.heading) / 3));
-        int y0 = ((int) Math.round(status.locY - baseOffsetY / 2
-                - s * Math.sin(status.heading) / 3));
-
-        xpoints[0] = x0;
-        xpoints[1] = x0 + baseOffsetX;
-        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(status.heading));
-        xpoints[3] = x0 + (int) Math.round(s * Math.cos(status.heading));
-
-        ypoints[0] = y0;
-        ypoints[1] = y0 + baseOffsetY;
-        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(status.heading));
-        ypoints[3] = y0 + (int) Math.round(s * Math.sin(status.heading));
-
-        g.setColor(form.color);
-        myWorld.fillPolygon(xpoints, ypoints, 3, g);
+    public void draw(Snapshot.Builder s) {
+        s.body(Snapshot.Shape.TRIANGLE, status.locX, status.locY, status.heading,
+                form.size, form.color);
     }
 
 
@@ -140,7 +114,7 @@ public class Runner extends Agent {
      */
     @Override
     public void deliberate(List<Percept> ps) {      
-        todo = new LinkedList<Intention>();
+        // nothing to do
     }
 
     /**
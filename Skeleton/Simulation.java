@@ -6,11 +6,11 @@ import java.io.IOException;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Simulation manages a window, file I/O, and simulation stepping
  * for a test scenario describing agents acting in an environment.
+ * It can also simulate a scenario with no window at all.
  * 
  * @author Matthew Stone
  * @version 1.0
@@ -69,52 +69,142 @@ public class Simulation extends Frame {
         }       
     }
     
+    /**
+     * Read a world specification from a file.
+     * The file can also be a log, XML or binary, which is
+     * replayed from start to end, showing each step in turn
+     * if there is a window.
+     * 
+     * @param spec name of XML file specifying the world
+     * @param frame window to display the world in, null for none
+     * @return the world specified, or null if the file has no world
+     * @throws SAXException in case the file is not a valid specification
+     * @throws IOException in case the file cannot be read
+     */
+    static World load(String spec, Frame frame) throws SAXException, IOException {
+        if (ReplayEngine.isLog(spec)) {
+            ReplayEngine replay = new ReplayEngine(spec, frame);
+            if (frame != null)
+                replay.play(1);
+            else
+                replay.seek(replay.getLastStep());
+            return replay.getWorld();
+        }
+
+        // Set up SAX reader, which processes XML objects as file is read.
+        XMLReader xr = FlockingReader.newXMLReader();      
+        FlockingReader handler = new FlockingReader(frame);
+        xr.setContentHandler(handler);
+        xr.setErrorHandler(handler);
+
+        // Parse the XML
+        FileReader r = new FileReader(spec);
+        try {
+            xr.parse(new InputSource(r));
+        } finally {
+            r.close();
+        }
+        return handler.getWorld();
+    }
+
+    /**
+     * Simulate the world in a specification file without
+     * any display, as fast as possible.  The log file, if
+     * the world has one, is finished even if the program
+     * is stopped early.
+     * 
+     * @param spec name of XML file specifying the world
+     * @param steps how many steps to simulate, negative to go on until stopped
+     * @return the world, after simulation, or null if the file has no world
+     * @throws SAXException in case the file is not a valid specification
+     * @throws IOException in case the file cannot be read
+     */
+    public static World runHeadless(String spec, int steps) throws SAXException, IOException {
+        final World w = load(spec, null);
+        if (w == null || !w.isRunnable())
+            return w;
+        StepStats.publish(w.getStats());
+
+        // Clean up if control-C is pressed
+        Thread cleanup = new Thread() {
+            public void run() {
+                w.finishLogging();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(cleanup);
+
+        w.startLogging();
+        for (int i = 0; steps < 0 || i < steps; i++) {
+            w.stepWorld();
+        }
+        w.finishLogging();
+        Runtime.getRuntime().removeShutdownHook(cleanup);
+        return w;
+    }
+
     /**
      * Command-line interface to simulation class.
+     * With a number of steps, or when there is no display,
+     * simulates without showing anything and without waiting
+     * between steps.  Otherwise steps at the rate the world's
+     * delay asks for, and shows it at its frame rate.
      * 
      * @param args array of strings specified on the 
      *             command line; should specify a
-     *             single XML specification of a world
+     *             single XML specification of a world,
+     *             optionally followed by how many steps
+     *             to simulate
      */
     public static void main(String[] args) {
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Usage error: run as <program> <specfile> [<steps>] for a single XML world spec.");
+            return;
+        }
+
+        int steps = -1;
+        if (args.length == 2) {
+            try {
+                steps = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.err.println("Usage error: number of steps " + args[1] + " is not an integer.");
+                return;
+            }
+        }
+
+        if (steps >= 0 || GraphicsEnvironment.isHeadless()) {
+            try {
+                runHeadless(args[0], steps);
+            } catch (SAXException e) {
+                System.err.println(e.getMessage());
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            return;
+        }
+
         Simulation s = new Simulation();
 
         // Clean up if control-C is pressed
         Runtime.getRuntime().addShutdownHook(s.new Cleanup());
         
-        if (args.length != 1) {
-            System.err.println("Usage error: run as <program> <specfile> for a single XML world spec.");
-        }
         try {
-            // Set up SAX reader, which processes XML objects as file is read.
-            XMLReader xr = XMLReaderFactory.createXMLReader();      
-            FlockingReader handler = new FlockingReader(s);
-            xr.setContentHandler(handler);
-            xr.setErrorHandler(handler);
-            
-            // Parse the XML
-            FileReader r = new FileReader(args[0]);
-            xr.parse(new InputSource(r));
+            // Read the world, showing it on screen as it is read
+            s.w = load(args[0], s);
 
             // Show the simulation on screen, if you haven't already
-            s.w = handler.getWorld();
             if (s.w == null)
             	s.pack();
             s.setVisible(true);
 
             // Get ready to record activities
-            if (s.w != null) 
+            if (s.w != null) {
+                StepStats.publish(s.w.getStats());
                 s.w.startLogging();
-
-            // Run any simulation indefinitely
-            while (s.w != null && s.w.isRunnable()) {
-                s.w.stepWorld();
-                try {
-                    Thread.sleep(s.w.getDelay());
-                }
-                catch (InterruptedException e) {
-                }
             }
+
+            // Run any simulation indefinitely, at the pace it asks for
+            if (s.w != null)
+                new StepScheduler(s.w).run();
             
             // Clean up if the world spec did not want a simulation
             s.processWindowEvent(new WindowEvent(s, WindowEvent.WINDOW_CLOSING));
@@ -1,7 +1,6 @@
 import java.awt.Color;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.xml.sax.Attributes;
@@ -130,8 +129,6 @@ public class SmartFollower extends Follower {
     public void deliberate(List<Percept> ps) {
         Percept closestSeen = bestTarget(ps);
         
-        todo = new LinkedList<Intention>();
-
         if (closestSeen != null) {
             
             double desiredForwardV;
@@ -159,8 +156,8 @@ public class SmartFollower extends Follower {
                 }
                     
             }
-            todo.add(new Intention(Intention.ActionType.TURN, desiredAngle));
-            todo.add(new Intention(Intention.ActionType.CHANGE_SPEED, desiredForwardV - status.forwardV));
+            intend(Intention.ActionType.TURN, desiredAngle);
+            intend(Intention.ActionType.CHANGE_SPEED, desiredForwardV - status.forwardV);
         }
     }
 }
@@ -0,0 +1,304 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * Snapshot is a picture of a world at one moment, made by the
+ * thread that runs the world and drawn by the thread that
+ * paints the window.  It never changes once made, so the two
+ * threads can share it freely: the world hands each new one
+ * over through a volatile field, and the window draws
+ * whichever is newest when it gets round to painting,
+ * skipping any it was too slow for.
+ *
+ * A snapshot holds only what it takes to draw: the body of
+ * each agent, given by a shape, position, heading, size and
+ * color, and any lines and ovals agents add, such as the
+ * forces they show when debugging.  Agents describe themselves
+ * to a Builder, in Agent.draw.
+ *
+ * @version 1.0
+ */
+public final class Snapshot {
+
+    /**
+     * Shapes of the bodies of agents
+     */
+    public enum Shape {
+        /** Triangle pointing along the heading, size long */
+        TRIANGLE,
+        /** Circle size across, not wrapped around the edges */
+        DISC,
+        /** Square size across, ignoring the heading */
+        SQUARE
+    }
+
+    /** Shapes, by ordinal */
+    private static final Shape[] SHAPES = Shape.values();
+
+    /** Step of the world when the snapshot was made */
+    private final int step;
+    /** How many agents look like each category, by ordinal */
+    private final int[] seen;
+    /** Shape of each body, by ordinal */
+    private final byte[] shapes;
+    /** Horizontal coordinate of the center of each body */
+    private final float[] xs;
+    /** Vertical coordinate of the center of each body */
+    private final float[] ys;
+    /** Heading of each body, in radians */
+    private final float[] headings;
+    /** Size of each body */
+    private final int[] sizes;
+    /** Color of each body */
+    private final Color[] colors;
+    /** Ends of each line, four coordinates to a line */
+    private final int[] lines;
+    /** Color of each line */
+    private final Color[] lineColors;
+    /** Top left corner and size of each oval, three numbers to an oval */
+    private final int[] ovals;
+    /** Color of each oval */
+    private final Color[] ovalColors;
+
+    /**
+     * Constructor: takes a copy of what has been described so far
+     *
+     * @param b description of the world
+     * @param step step of the world
+     * @param seen how many agents look like each category, by ordinal
+     */
+    private Snapshot(Builder b, int step, int[] seen) {
+        this.step = step;
+        this.seen = seen.clone();
+        shapes = Arrays.copyOf(b.shapes, b.bodies);
+        xs = Arrays.copyOf(b.xs, b.bodies);
+        ys = Arrays.copyOf(b.ys, b.bodies);
+        headings = Arrays.copyOf(b.headings, b.bodies);
+        sizes = Arrays.copyOf(b.sizes, b.bodies);
+        colors = Arrays.copyOf(b.colors, b.bodies);
+        lines = Arrays.copyOf(b.lines, 4 * b.lineCount);
+        lineColors = Arrays.copyOf(b.lineColors, b.lineCount);
+        ovals = Arrays.copyOf(b.ovals, 3 * b.ovalCount);
+        ovalColors = Arrays.copyOf(b.ovalColors, b.ovalCount);
+    }
+
+    /**
+     * @return step of the world when the snapshot was made
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @param c kind of thing
+     * @return how many agents looked like it
+     */
+    public int count(Percept.ObjectCategory c) {
+        return seen[c.ordinal()];
+    }
+
+    /**
+     * Draw the snapshot: the bodies of the agents, then
+     * the lines and ovals over them
+     *
+     * @param g graphics information
+     * @param w world, to wrap drawings around its edges
+     */
+    public void paint(Graphics g, World w) {
+        int[] xpoints = new int[3];
+        int[] ypoints = new int[3];
+        Color current = null;
+        for (int i = 0; i < shapes.length; i++) {
+            if (colors[i] != current) {
+                current = colors[i];
+                g.setColor(current);
+            }
+            int size = sizes[i];
+            switch (SHAPES[shapes[i]]) {
+            case TRIANGLE:
+                triangle(xs[i], ys[i], headings[i], size, xpoints, ypoints);
+                w.fillPolygon(xpoints, ypoints, 3, g);
+                break;
+            case DISC:
+                g.fillOval(Math.round(xs[i] - size / 2),
+                        Math.round(ys[i] - size / 2), size, size);
+                break;
+            case SQUARE:
+                w.fillRect(Math.round(xs[i] - size / 2),
+                        Math.round(ys[i] - size / 2), size, size, g);
+                break;
+            }
+        }
+        for (int i = 0; i < lineColors.length; i++) {
+            if (lineColors[i] != current) {
+                current = lineColors[i];
+                g.setColor(current);
+            }
+            w.drawLine(lines[4 * i], lines[4 * i + 1], lines[4 * i + 2], lines[4 * i + 3], g);
+        }
+        for (int i = 0; i < ovalColors.length; i++) {
+            if (ovalColors[i] != current) {
+                current = ovalColors[i];
+                g.setColor(current);
+            }
+            w.fillOval(ovals[3 * i], ovals[3 * i + 1], ovals[3 * i + 2], ovals[3 * i + 2], g);
+        }
+    }
+
+    /**
+     * Work out the corners of a triangle pointing along a heading
+     *
+     * @param x horizontal coordinate of the center
+     * @param y vertical coordinate of the center
+     * @param heading direction to point in, in radians
+     * @param s length of the triangle
+     * @param xpoints filled in with horizontal coordinates of the corners
+     * @param ypoints filled in with vertical coordinates of the corners
+     */
+    private static void triangle(double x, double y, double heading, double s,
+            int[] xpoints, int[] ypoints) {
+        double baseAngle = heading + Math.PI / 2;
+        int baseOffsetX = (int) Math.round(2 * s * Math.cos(baseAngle) / 3);
+        int baseOffsetY = (int) Math.round(2 * s * Math.sin(baseAngle) / 3);
+
+        int x0 = ((int) Math.round(x - baseOffsetX / 2 - s * Math.cos(heading) / 3));
+        int y0 = ((int) Math.round(y - baseOffsetY / 2 - s * Math.sin(heading) / 3));
+
+        xpoints[0] = x0;
+        xpoints[1] = x0 + baseOffsetX;
+        xpoints[2] = x0 + baseOffsetX / 2 + (int) Math.round(s * Math.cos(heading));
+
+        ypoints[0] = y0;
+        ypoints[1] = y0 + baseOffsetY;
+        ypoints[2] = y0 + baseOffsetY / 2 + (int) Math.round(s * Math.sin(heading));
+    }
+
+    /**
+     * Collects the description of a world, one agent after
+     * another, to make a snapshot of.  A builder is kept by
+     * its world and reused, so it only allocates as the
+     * world grows.
+     */
+    public static final class Builder {
+        /** How many bodies have been described */
+        private int bodies;
+        /** Shape of each body, by ordinal */
+        private byte[] shapes = new byte[16];
+        /** Horizontal coordinate of the center of each body */
+        private float[] xs = new float[16];
+        /** Vertical coordinate of the center of each body */
+        private float[] ys = new float[16];
+        /** Heading of each body, in radians */
+        private float[] headings = new float[16];
+        /** Size of each body */
+        private int[] sizes = new int[16];
+        /** Color of each body */
+        private Color[] colors = new Color[16];
+        /** How many lines have been described */
+        private int lineCount;
+        /** Ends of each line, four coordinates to a line */
+        private int[] lines = new int[64];
+        /** Color of each line */
+        private Color[] lineColors = new Color[16];
+        /** How many ovals have been described */
+        private int ovalCount;
+        /** Top left corner and size of each oval, three numbers to an oval */
+        private int[] ovals = new int[48];
+        /** Color of each oval */
+        private Color[] ovalColors = new Color[16];
+
+        /**
+         * Constructor: nothing described yet
+         */
+        Builder() {
+        }
+
+        /**
+         * Describe the body of an agent
+         *
+         * @param shape its shape
+         * @param x horizontal coordinate of its center
+         * @param y vertical coordinate of its center
+         * @param heading direction it faces, in radians
+         * @param size how big it is
+         * @param color its color
+         */
+        public void body(Shape shape, double x, double y, double heading, int size, Color color) {
+            if (bodies == shapes.length) {
+                int n = 2 * bodies;
+                shapes = Arrays.copyOf(shapes, n);
+                xs = Arrays.copyOf(xs, n);
+                ys = Arrays.copyOf(ys, n);
+                headings = Arrays.copyOf(headings, n);
+                sizes = Arrays.copyOf(sizes, n);
+                colors = Arrays.copyOf(colors, n);
+            }
+            shapes[bodies] = (byte) shape.ordinal();
+            xs[bodies] = (float) x;
+            ys[bodies] = (float) y;
+            headings[bodies] = (float) heading;
+            sizes[bodies] = size;
+            colors[bodies] = color;
+            bodies++;
+        }
+
+        /**
+         * Describe a line, wrapped around the edges of the world
+         *
+         * @param x1 horizontal coordinate of one end
+         * @param y1 vertical coordinate of one end
+         * @param x2 horizontal coordinate of the other end
+         * @param y2 vertical coordinate of the other end
+         * @param color its color
+         */
+        public void line(int x1, int y1, int x2, int y2, Color color) {
+            if (lineCount == lineColors.length) {
+                lines = Arrays.copyOf(lines, 8 * lineCount);
+                lineColors = Arrays.copyOf(lineColors, 2 * lineCount);
+            }
+            lines[4 * lineCount] = x1;
+            lines[4 * lineCount + 1] = y1;
+            lines[4 * lineCount + 2] = x2;
+            lines[4 * lineCount + 3] = y2;
+            lineColors[lineCount] = color;
+            lineCount++;
+        }
+
+        /**
+         * Describe a filled circle, wrapped around the edges of the world
+         *
+         * @param x horizontal coordinate of its top left corner
+         * @param y vertical coordinate of its top left corner
+         * @param size how big it is across
+         * @param color its color
+         */
+        public void oval(int x, int y, int size, Color color) {
+            if (ovalCount == ovalColors.length) {
+                ovals = Arrays.copyOf(ovals, 6 * ovalCount);
+                ovalColors = Arrays.copyOf(ovalColors, 2 * ovalCount);
+            }
+            ovals[3 * ovalCount] = x;
+            ovals[3 * ovalCount + 1] = y;
+            ovals[3 * ovalCount + 2] = size;
+            ovalColors[ovalCount] = color;
+            ovalCount++;
+        }
+
+        /**
+         * Make a snapshot of everything described since the
+         * last one, and start again with nothing described
+         *
+         * @param step step of the world
+         * @param seen how many agents look like each category, by ordinal
+         * @return the snapshot
+         */
+        Snapshot build(int step, int[] seen) {
+            Snapshot s = new Snapshot(this, step, seen);
+            bodies = 0;
+            lineCount = 0;
+            ovalCount = 0;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+/**
+ * A uniform grid laid over the torus world that buckets agents
+ * by position.  An agent looking for its neighbors then only
+ * has to examine the cells that overlap its perception radius,
+ * rather than every other agent in the world.
+ *
+ * The grid is rebuilt from scratch once per step, which costs
+ * time linear in the number of agents.  Agents are identified
+ * by their index in the array passed to rebuild, and queries
+ * report indices in increasing order, so that callers see
+ * neighbors in the same order as a scan of the whole array.
+ *
+ * @version 1.0
+ */
+class SpatialGrid {
+
+    /** Never make more cells than this along either axis */
+    static final int MAX_CELLS_PER_SIDE = 256;
+
+    /** Width of the world the grid covers */
+    private double width;
+    /** Height of the world the grid covers */
+    private double height;
+    /** Number of cells horizontally */
+    private int cols;
+    /** Number of cells vertically */
+    private int rows;
+    /** Horizontal extent of each cell */
+    private double cellWidth;
+    /** Vertical extent of each cell */
+    private double cellHeight;
+
+    /** Where each cell's entries begin in items; cellStart[c+1] is where they end */
+    private int[] cellStart = new int[0];
+    /** Agent indices, grouped by cell */
+    private int[] items = new int[0];
+    /** Cell each agent was put in, by agent index */
+    private int[] cellOf = new int[0];
+
+    /**
+     * Work out how many cells of at least the given size
+     * fit evenly along an axis of the given length.
+     *
+     * @param length circumference of the axis
+     * @param cellSize smallest acceptable cell extent
+     * @return number of cells, at least one
+     */
+    private static int cellsAlong(double length, double cellSize) {
+        if (!(cellSize > 0) || cellSize >= length)
+            return 1;
+        double n = Math.floor(length / cellSize);
+        return (int) Math.max(1, Math.min(n, MAX_CELLS_PER_SIDE));
+    }
+
+    /**
+     * Find the cell column containing horizontal coordinate x
+     *
+     * @param x coordinate, already normalized to [0, width)
+     * @return column index
+     */
+    private int column(double x) {
+        int c = (int) (x / cellWidth);
+        return c < cols ? c : cols - 1;
+    }
+
+    /**
+     * Find the cell row containing vertical coordinate y
+     *
+     * @param y coordinate, already normalized to [0, height)
+     * @return row index
+     */
+    private int row(double y) {
+        int r = (int) (y / cellHeight);
+        return r < rows ? r : rows - 1;
+    }
+
+    /**
+     * Sort the first count agents into cells.
+     * Cells are at least cellSize across, so a query with
+     * radius cellSize touches at most three cells on each axis.
+     *
+     * @param agents agents to index
+     * @param count how many entries of agents are in use
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize smallest acceptable cell extent
+     */
+    void rebuild(Agent[] agents, int count, int width, int height, double cellSize) {
+        this.width = width;
+        this.height = height;
+        cols = cellsAlong(width, cellSize);
+        rows = cellsAlong(height, cellSize);
+        cellWidth = (double) width / cols;
+        cellHeight = (double) height / rows;
+
+        int cells = cols * rows;
+        if (cellStart.length < cells + 1)
+            cellStart = new int[cells + 1];
+        else
+            Arrays.fill(cellStart, 0, cells + 1, 0);
+        if (items.length < count) {
+            items = new int[count];
+            cellOf = new int[count];
+        }
+
+        // counting sort: tally each cell, then turn tallies into offsets
+        for (int i = 0; i < count; i++) {
+            double x = World.clampToCircle(agents[i].getLocX(), this.width);
+            double y = World.clampToCircle(agents[i].getLocY(), this.height);
+            int c = row(y) * cols + column(x);
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < count; i++) {
+            items[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * Collect every agent that might lie within radius of (x, y).
+     * The answer may include agents somewhat farther away than radius,
+     * but never leaves out one that is closer.
+     *
+     * @param x horizontal coordinate of the center of the search
+     * @param y vertical coordinate of the center of the search
+     * @param radius how far to search
+     * @param result array to fill with agent indices, in increasing order;
+     *               must have room for every indexed agent
+     * @return number of entries written to result
+     */
+    int query(double x, double y, double radius, int[] result) {
+        x = World.clampToCircle(x, width);
+        y = World.clampToCircle(y, height);
+
+        int firstCol, colSpan, firstRow, rowSpan;
+        if (radius >= width / 2) {
+            firstCol = 0;
+            colSpan = cols;
+        } else {
+            firstCol = (int) Math.floor((x - radius) / cellWidth);
+            colSpan = Math.min(cols, (int) Math.floor((x + radius) / cellWidth) - firstCol + 1);
+        }
+        if (radius >= height / 2) {
+            firstRow = 0;
+            rowSpan = rows;
+        } else {
+            firstRow = (int) Math.floor((y - radius) / cellHeight);
+            rowSpan = Math.min(rows, (int) Math.floor((y + radius) / cellHeight) - firstRow + 1);
+        }
+
+        int n = 0;
+        for (int i = 0; i < rowSpan; i++) {
+            int r = World.clampToCircle(firstRow + i, rows);
+            for (int j = 0; j < colSpan; j++) {
+                int c = r * cols + World.clampToCircle(firstCol + j, cols);
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    result[n++] = items[k];
+                }
+            }
+        }
+        Arrays.sort(result, 0, n);
+        return n;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.List;
+
+/**
+ * The agents in a world that never move or decide anything,
+ * like obstacles and light sources, together with the indexes
+ * used to find them in percepts and collision checks.
+ *
+ * Since these agents stay put, the layer is built once and
+ * not changed afterwards.  The world builds a new one only
+ * when one of its agents is changed from outside the simulation,
+ * or dies.  Agents are kept in the order in which they joined
+ * the world, and queries report positions in that order.
+ *
+ * @version 1.0
+ */
+class StaticLayer {
+
+    /** The stationary agents, in the order they joined the world */
+    private final Agent[] agents;
+    /** Index for finding agents near a point */
+    private final SpatialGrid grid = new SpatialGrid();
+    /** Index for finding agents in the path of a moving agent */
+    private final CollisionIndex obstacles = new CollisionIndex();
+
+    /**
+     * Constructor
+     *
+     * @param stationary agents that stay put, in the order they joined the world
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param cellSize typical perception radius, used to size the grid
+     */
+    StaticLayer(List<Agent> stationary, int width, int height, double cellSize) {
+        agents = stationary.toArray(new Agent[stationary.size()]);
+        boolean[] include = new boolean[agents.length];
+        int largest = 0;
+        for (int i = 0; i < agents.length; i++) {
+            include[i] = true;
+            largest = Math.max(largest, agents[i].getSize());
+        }
+        grid.rebuild(agents, agents.length, width, height, cellSize);
+        obstacles.rebuild(agents, include, agents.length, width, height, 2 * largest);
+    }
+
+    /**
+     * @return how many agents are in the layer
+     */
+    int size() {
+        return agents.length;
+    }
+
+    /**
+     * @param i position of an agent in the layer
+     * @return the agent at that position
+     */
+    Agent get(int i) {
+        return agents[i];
+    }
+
+    /**
+     * Is agent a part of this layer?
+     *
+     * @param a agent to look for
+     * @return true if a is one of the stationary agents
+     */
+    boolean contains(Agent a) {
+        int lo = 0;
+        int hi = agents.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (agents[mid].joined < a.joined)
+                lo = mid + 1;
+            else if (agents[mid].joined > a.joined)
+                hi = mid - 1;
+            else
+                return agents[mid] == a;
+        }
+        return false;
+    }
+
+    /**
+     * Collect the agents that might lie within radius of (x, y).
+     * @see SpatialGrid#query
+     */
+    int near(double x, double y, double radius, int[] result) {
+        return grid.query(x, y, radius, result);
+    }
+
+    /**
+     * Collect the agents that might be in the way of a path
+     * from (x0, y0) to (x1, y1).
+     * @see CollisionIndex#query
+     */
+    int inPath(double x0, double y0, double x1, double y1, int[] result) {
+        return obstacles.query(x0, y0, x1, y1, result);
+    }
+}
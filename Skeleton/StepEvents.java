@@ -0,0 +1,117 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Events for JDK Flight Recorder, so that a recording of a run
+ * shows each step of the world, each phase of the step, and
+ * some of the calls agents make to deliberate, with the kind of
+ * agent, so time can be put down to the right kind of agent.
+ *
+ * Steps and phases are recorded whenever a recording asks for
+ * them.  Deliberation is disabled by default, as there is one
+ * call per agent per step; when a recording enables it, only
+ * one call in World.getDeliberateSampling() per thread is
+ * recorded.  When nothing is being recorded, these cost the
+ * world next to nothing.
+ *
+ * @version 1.0
+ */
+class StepEvents {
+
+    /** Category all the events are listed under */
+    static final String CATEGORY = "Flockers";
+
+    /**
+     * One step of the world
+     */
+    @Name("flockers.Step")
+    @Label("Step")
+    @Category(CATEGORY)
+    @Description("One step of simulation of the world")
+    @StackTrace(false)
+    static class Step extends Event {
+        @Label("Step")
+        int step;
+
+        @Label("Agents")
+        int agents;
+    }
+
+    /**
+     * One phase of a step, as in StepStats.Phase
+     */
+    @Name("flockers.Phase")
+    @Label("Step Phase")
+    @Category(CATEGORY)
+    @Description("One phase of a step: think, act, repaint, log or corpses")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Step")
+        int step;
+
+        @Label("Phase")
+        String phase;
+    }
+
+    /**
+     * One call an agent made to deliberate
+     */
+    @Name("flockers.Deliberate")
+    @Label("Deliberate")
+    @Category(CATEGORY)
+    @Description("One agent deliberating, for a sample of agents")
+    @Enabled(false)
+    static class Deliberate extends Event {
+        @Label("Agent Class")
+        Class<?> agentClass;
+
+        @Label("Percepts")
+        int percepts;
+
+        @Label("Intentions")
+        int intentions;
+    }
+
+    /** Type of Deliberate, to ask whether it is being recorded */
+    private static final EventType DELIBERATE = EventType.getEventType(Deliberate.class);
+
+    /**
+     * Start timing a phase of a step
+     *
+     * @param step the step
+     * @param phase which phase
+     * @return the event for the phase, begun
+     */
+    static Phase begin(int step, StepStats.Phase phase) {
+        Phase e = new Phase();
+        e.step = step;
+        e.phase = phase.name().toLowerCase();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End one phase of a step and start timing the next
+     *
+     * @param last the event for the phase that has finished
+     * @param phase which phase starts now
+     * @return the event for the next phase, begun
+     */
+    static Phase next(Phase last, StepStats.Phase phase) {
+        last.commit();
+        return begin(last.step, phase);
+    }
+
+    /**
+     * @return whether deliberation is being recorded at all
+     */
+    static boolean recordingDeliberation() {
+        return DELIBERATE.isEnabled();
+    }
+}
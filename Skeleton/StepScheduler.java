@@ -0,0 +1,84 @@
+/**
+ * Runs a world at a fixed rate: one step every delay milliseconds,
+ * however long the steps take.  Time that goes by is added up, and
+ * a step is taken for each delay's worth, so that a step that runs
+ * long is made up by starting the next one sooner.  When the steps
+ * fall so far behind that more than the world's catch-up limit are
+ * due at once, the rest are dropped, and the world simply runs slow
+ * for a while rather than rushing to make them up later.
+ *
+ * A delay of 0 runs the world as fast as possible.  With a frame
+ * rate, the world is shown that many times a second however fast
+ * it is stepped; otherwise it is shown after every step.
+ *
+ * @version 1.0
+ */
+class StepScheduler {
+
+    /** The world being run */
+    private final World world;
+    /** Time from one step to the next, in nanoseconds, 0 for as fast as possible */
+    private final long period;
+    /** Time from one showing of the world to the next, in nanoseconds, 0 for after every step */
+    private final long framePeriod;
+    /** Most steps taken back to back to catch up */
+    private final int catchUp;
+
+    /**
+     * Constructor: the rates come from the world
+     *
+     * @param w world to run
+     */
+    StepScheduler(World w) {
+        world = w;
+        period = Math.max(w.getDelay(), 0) * 1000000L;
+        framePeriod = w.getFrameRate() > 0 ? 1000000000L / w.getFrameRate() : 0;
+        catchUp = w.getCatchUp();
+    }
+
+    /**
+     * Step the world for as long as it is runnable, or until
+     * the thread is interrupted
+     */
+    void run() {
+        long last = System.nanoTime();
+        // a step is due at once
+        long owed = period;
+        long nextFrame = last;
+        while (world.isRunnable() && !Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            owed += now - last;
+            last = now;
+            if (period == 0) {
+                world.stepWorld();
+            } else {
+                for (int i = 0; owed >= period && i < catchUp; i++) {
+                    world.stepWorld();
+                    owed -= period;
+                }
+                // drop the steps still due
+                owed %= period;
+            }
+
+            now = System.nanoTime();
+            long wait = period == 0 ? 0 : period - owed - (now - last);
+            if (framePeriod > 0) {
+                if (now - nextFrame >= 0) {
+                    world.repaint();
+                    // do not show frames in a burst after falling behind
+                    nextFrame = Math.max(nextFrame + framePeriod, now);
+                }
+                if (period > 0)
+                    wait = Math.min(wait, nextFrame - now);
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,451 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timing and counts for the steps of a world, broken down by
+ * phase, kept while enabled.  Each phase has a histogram of
+ * how long it took, with a bucket for each power of two
+ * nanoseconds, so recording a time is a few additions.
+ * When disabled, the world does not even read the clock.
+ *
+ * Alongside the totals, rolling averages of the last few dozen
+ * steps are kept for the debugging display: the time of each
+ * phase, steps per second, percepts per agent, and the bytes
+ * allocated by the thread stepping the world.
+ *
+ * Times are recorded by the thread stepping the world; counts
+ * can come from the threads agents think and move in as well.
+ * Readers on other threads, such as JMX, may see figures a
+ * step out of date, which is fine for watching.
+ *
+ * @version 1.0
+ */
+public class StepStats implements StepStatsMXBean {
+
+    /** Name the stats of the world being simulated are published under */
+    public static final String OBJECT_NAME = "flockers:type=StepStats";
+
+    /**
+     * Parts of a step that are timed separately
+     */
+    enum Phase {
+        STEP, THINK, ACT, REPAINT, LOG, CORPSES
+    }
+
+    /**
+     * Histogram of the times a phase took
+     */
+    static class Histogram {
+        /** How many times fell between 2^(i-1) and 2^i - 1 nanoseconds, for each i */
+        private final long[] buckets = new long[64];
+        /** How many times were recorded */
+        private long count;
+        /** Sum of the times */
+        private long total;
+        /** Longest time */
+        private long max;
+
+        /**
+         * @param nanos time to add to the histogram
+         */
+        void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            buckets[Math.min(64 - Long.numberOfLeadingZeros(nanos), 63)]++;
+            count++;
+            total += nanos;
+            if (nanos > max)
+                max = nanos;
+        }
+
+        /**
+         * @param fraction between 0 and 1
+         * @return time at least that fraction of the times were within,
+         *         rounded up to a power of two
+         */
+        long percentile(double fraction) {
+            long wanted = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= wanted && seen > 0)
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+            }
+            return max;
+        }
+
+        /**
+         * Forget every time recorded
+         */
+        void clear() {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        }
+    }
+
+    /**
+     * Summary of the times a phase took, as published over JMX
+     */
+    public static class PhaseTimes {
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long[] histogram;
+
+        PhaseTimes(Histogram h) {
+            count = h.count;
+            totalNanos = h.total;
+            maxNanos = h.max;
+            p50Nanos = h.percentile(0.5);
+            p90Nanos = h.percentile(0.9);
+            p99Nanos = h.percentile(0.99);
+            histogram = h.buckets.clone();
+        }
+
+        /** @return how many times the phase was timed */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return total time */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** @return average time, 0 if never timed */
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /** @return longest time */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /** @return median time, to the next power of two */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /** @return 90th percentile time, to the next power of two */
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        /** @return 99th percentile time, to the next power of two */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * @return how many times fell between 2^(i-1) and 2^i - 1
+         *         nanoseconds, for each i
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+    }
+
+    /** Whether steps are being timed and counted */
+    private volatile boolean enabled;
+    /** Histogram for each phase, by ordinal */
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+    /** Percepts given to agents */
+    private final AtomicLong percepts = new AtomicLong();
+    /** Paths checked against agents */
+    private final AtomicLong collisionTests = new AtomicLong();
+    /** Agents that died */
+    private final AtomicLong agentsKilled = new AtomicLong();
+    /** Log being written, whose dropped and merged records are reported, null if none */
+    private volatile LogWriter log;
+
+    /** Weight of the newest value in rolling averages */
+    static final double RECENT_WEIGHT = 0.05;
+    /** Rolling average time of each phase, by ordinal */
+    private final double[] recent = new double[phases.length];
+    /** Rolling average time from the start of one step to the start of the next */
+    private double recentPeriod;
+    /** Rolling average bytes allocated per second by the thread stepping the world */
+    private double recentAllocation;
+    /** When the last step started, 0 if none has */
+    private long lastStart;
+    /** Bytes the stepping thread had allocated when the step started, -1 if unknown */
+    private long allocatedAtStart = -1;
+    /** Agents that deliberated in this step */
+    private final AtomicInteger stepThinkers = new AtomicInteger();
+    /** Percepts given to agents in this step */
+    private final AtomicLong stepPercepts = new AtomicLong();
+    /** Most percepts given to one agent in this step */
+    private final AtomicInteger stepMaxPercepts = new AtomicInteger();
+    /** Mean percepts per agent in the last step */
+    private volatile double lastMeanPercepts;
+    /** Most percepts given to one agent in the last step */
+    private volatile int lastMaxPercepts;
+    /** For the bytes allocated by a thread, null if this JVM cannot tell */
+    private static final com.sun.management.ThreadMXBean ALLOCATION = allocationBean();
+
+    /**
+     * Constructor: stats that start disabled
+     */
+    StepStats() {
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = new Histogram();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Note that a step is starting, when enabled
+     *
+     * @return System.nanoTime() now
+     */
+    long startStep() {
+        long now = System.nanoTime();
+        if (lastStart != 0)
+            recentPeriod = rolling(recentPeriod, now - lastStart);
+        lastStart = now;
+        allocatedAtStart = allocated();
+        return now;
+    }
+
+    /**
+     * Note that a step has finished, when enabled, recording
+     * the time of the whole step
+     *
+     * @param start System.nanoTime() when it started
+     */
+    void endStep(long start) {
+        long now = lap(Phase.STEP, start);
+        long allocated = allocated();
+        if (allocated >= 0 && allocatedAtStart >= 0 && now > start)
+            recentAllocation = rolling(recentAllocation, (allocated - allocatedAtStart) * 1e9 / (now - start));
+        int thinkers = stepThinkers.getAndSet(0);
+        long percepts = stepPercepts.getAndSet(0);
+        lastMeanPercepts = thinkers == 0 ? 0 : (double) percepts / thinkers;
+        lastMaxPercepts = stepMaxPercepts.getAndSet(0);
+    }
+
+    /**
+     * Record the time a phase took, if enabled
+     *
+     * @param phase which phase
+     * @param start System.nanoTime() when it started
+     * @return System.nanoTime() now, when the next phase starts
+     */
+    long lap(Phase phase, long start) {
+        long now = System.nanoTime();
+        phases[phase.ordinal()].record(now - start);
+        recent[phase.ordinal()] = rolling(recent[phase.ordinal()], now - start);
+        return now;
+    }
+
+    /**
+     * @param n how many more percepts agents were given
+     */
+    void countPercepts(int n) {
+        percepts.addAndGet(n);
+        stepPercepts.addAndGet(n);
+        stepThinkers.incrementAndGet();
+        int max = stepMaxPercepts.get();
+        while (n > max && !stepMaxPercepts.compareAndSet(max, n))
+            max = stepMaxPercepts.get();
+    }
+
+    /**
+     * @param n how many more times paths were checked against agents
+     */
+    void countCollisionTests(int n) {
+        collisionTests.addAndGet(n);
+    }
+
+    /**
+     * @param n how many more agents died
+     */
+    void countKilled(int n) {
+        agentsKilled.addAndGet(n);
+    }
+
+    public long getSteps() {
+        return phases[Phase.STEP.ordinal()].count;
+    }
+
+    public PhaseTimes getStep() {
+        return times(Phase.STEP);
+    }
+
+    public PhaseTimes getThink() {
+        return times(Phase.THINK);
+    }
+
+    public PhaseTimes getAct() {
+        return times(Phase.ACT);
+    }
+
+    public PhaseTimes getRepaint() {
+        return times(Phase.REPAINT);
+    }
+
+    public PhaseTimes getLog() {
+        return times(Phase.LOG);
+    }
+
+    public PhaseTimes getCorpses() {
+        return times(Phase.CORPSES);
+    }
+
+    /**
+     * @param phase which phase
+     * @return summary of its times so far
+     */
+    PhaseTimes times(Phase phase) {
+        return new PhaseTimes(phases[phase.ordinal()]);
+    }
+
+    public long getPercepts() {
+        return percepts.get();
+    }
+
+    public long getCollisionTests() {
+        return collisionTests.get();
+    }
+
+    public long getAgentsKilled() {
+        return agentsKilled.get();
+    }
+
+    /**
+     * @param log log being written, null once it is closed
+     */
+    void watchLog(LogWriter log) {
+        this.log = log;
+    }
+
+    public long getLogDropped() {
+        LogWriter l = log;
+        return l == null ? 0 : l.getDropped();
+    }
+
+    public long getLogCoalesced() {
+        LogWriter l = log;
+        return l == null ? 0 : l.getCoalesced();
+    }
+
+    /**
+     * @param phase which phase
+     * @return rolling average of its time over recent steps, in nanoseconds
+     */
+    double recentNanos(Phase phase) {
+        return recent[phase.ordinal()];
+    }
+
+    /**
+     * @return rolling average of steps per second over recent
+     *         steps, counting the time between them, 0 if unknown
+     */
+    double recentStepsPerSecond() {
+        return recentPeriod == 0 ? 0 : 1e9 / recentPeriod;
+    }
+
+    /**
+     * @return rolling average of bytes allocated per second while
+     *         stepping, by the thread stepping the world
+     */
+    double recentAllocationRate() {
+        return recentAllocation;
+    }
+
+    /**
+     * @return mean percepts per agent that deliberated in the last step
+     */
+    double lastMeanPercepts() {
+        return lastMeanPercepts;
+    }
+
+    /**
+     * @return most percepts given to one agent in the last step
+     */
+    int lastMaxPercepts() {
+        return lastMaxPercepts;
+    }
+
+    public void reset() {
+        for (Histogram h: phases)
+            h.clear();
+        percepts.set(0);
+        collisionTests.set(0);
+        agentsKilled.set(0);
+        Arrays.fill(recent, 0);
+        recentPeriod = 0;
+        recentAllocation = 0;
+        lastStart = 0;
+    }
+
+    /**
+     * @param average rolling average so far, 0 if none
+     * @param value newest value
+     * @return rolling average taking the newest value into account
+     */
+    private static double rolling(double average, double value) {
+        if (average == 0)
+            return value;
+        return average + RECENT_WEIGHT * (value - average);
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, -1 if unknown
+     */
+    private static long allocated() {
+        if (ALLOCATION == null)
+            return -1;
+        return ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return the bean telling how much threads allocate, null if this JVM has none
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled())
+                return b;
+        }
+        return null;
+    }
+
+    /**
+     * Publish stats on the platform MBean server under OBJECT_NAME,
+     * in place of any published before
+     *
+     * @param stats stats of the world being simulated
+     */
+    static void publish(StepStats stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(stats, name);
+        } catch (JMException e) {
+            System.err.println("Could not publish step stats: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Management interface of StepStats, so that where the time of
+ * each step goes can be watched over JMX, under the name
+ * StepStats.OBJECT_NAME.  Timings are in nanoseconds.
+ *
+ * @version 1.0
+ */
+public interface StepStatsMXBean {
+
+    /**
+     * @return whether steps are being timed and counted
+     */
+    boolean isEnabled();
+
+    /**
+     * Turn timing and counting on or off
+     *
+     * @param enabled true to time and count steps
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return how many steps have been timed
+     */
+    long getSteps();
+
+    /**
+     * @return times of whole steps
+     */
+    StepStats.PhaseTimes getStep();
+
+    /**
+     * @return times of agents perceiving and deliberating
+     */
+    StepStats.PhaseTimes getThink();
+
+    /**
+     * @return times of agents acting and moving
+     */
+    StepStats.PhaseTimes getAct();
+
+    /**
+     * @return times of asking for the display to be redrawn
+     */
+    StepStats.PhaseTimes getRepaint();
+
+    /**
+     * @return times of writing the log
+     */
+    StepStats.PhaseTimes getLog();
+
+    /**
+     * @return times of clearing away dead agents
+     */
+    StepStats.PhaseTimes getCorpses();
+
+    /**
+     * @return how many percepts agents have been given
+     */
+    long getPercepts();
+
+    /**
+     * @return how many times a moving agent's path has been
+     *         checked against another agent
+     */
+    long getCollisionTests();
+
+    /**
+     * @return how many agents have died
+     */
+    long getAgentsKilled();
+
+    /**
+     * @return how many steps the log being written has left out
+     *         because its queue was full, since it was opened;
+     *         not affected by reset
+     */
+    long getLogDropped();
+
+    /**
+     * @return how many steps the log being written has merged
+     *         into later ones because its queue was full, since
+     *         it was opened; not affected by reset
+     */
+    long getLogCoalesced();
+
+    /**
+     * Start counting and timing again from zero
+     */
+    void reset();
+}
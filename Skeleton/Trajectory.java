@@ -0,0 +1,193 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Binary format for logs of the history of a world, as an
+ * alternative to the XML log.  It records the same things
+ * in a fraction of the space, and can be read back without
+ * parsing: see TrajectoryReader.
+ *
+ * All numbers are big-endian, as written by DataOutputStream.
+ * The file starts with a header:
+ *
+ *   int MAGIC, int VERSION, int width, int height,
+ *   int first step, int number of agents,
+ *   then for each agent, int length and that many bytes of
+ *   UTF-8 text giving the XML element that describes the
+ *   agent in full, as written by Agent.log,
+ *
+ * padded with zeroes to a multiple of 8 bytes.  Then come
+ * records, each starting with an int tag:
+ *
+ *   FRAME: int step, int count, int flags, then the columns
+ *   int[count] ids (padded to a multiple of 8 bytes),
+ *   double[count] x, double[count] y,
+ *   double[count] heading in degrees, double[count] speed;
+ *
+ *   DEATH: int id of the agent that died.
+ *
+ * A frame can leave out agents that have not changed, as in
+ * a delta log; flag KEYFRAME marks a frame with every agent,
+ * which is every frame of a log that is not a delta log.
+ *
+ * Every record is a multiple of 8 bytes long, so the columns
+ * of doubles in a file read into memory are lined up for
+ * reading in place.  The file simply ends after the last
+ * record.
+ *
+ * @version 1.0
+ */
+class Trajectory {
+
+    /** First four bytes of every trajectory file, "FLKT" */
+    static final int MAGIC = 0x464C4B54;
+
+    /** Version of the format written */
+    static final int VERSION = 1;
+
+    /** Tag of a record giving the state of the world after a step */
+    static final int FRAME = 1;
+
+    /** Tag of a record saying an agent died */
+    static final int DEATH = 2;
+
+    /** Flag of a frame that describes every agent */
+    static final int KEYFRAME = 1;
+
+    /** Length of the start of a frame record, before the columns */
+    static final int FRAME_HEADER = 16;
+
+    /** Encoding of the text in the header */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Value for the logformat attribute of a world to log in this format */
+    static final String FORMAT_NAME = "binary";
+
+    /**
+     * Write the header of a trajectory file
+     *
+     * @param out destination
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param step step the history starts at
+     * @param agents XML elements describing each agent at the start
+     * @throws IOException in case writing fails
+     */
+    static void writeHeader(DataOutputStream out, int width, int height, int step,
+            List<String> agents) throws IOException {
+        int length = 24;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(step);
+        out.writeInt(agents.size());
+        for (String a: agents) {
+            byte[] text = a.getBytes(UTF8);
+            out.writeInt(text.length);
+            out.write(text);
+            length += 4 + text.length;
+        }
+        pad(out, length);
+    }
+
+    /**
+     * Write a frame record giving the state of the agents after a step
+     *
+     * @param out destination
+     * @param step step just simulated
+     * @param keyframe whether the frame describes every agent
+     * @param count how many agents are in the frame
+     * @param ids id of each agent
+     * @param x horizontal coordinate of each agent
+     * @param y vertical coordinate of each agent
+     * @param heading heading of each agent, in degrees
+     * @param speed forward speed of each agent
+     * @throws IOException in case writing fails
+     */
+    static void writeFrame(DataOutputStream out, int step, boolean keyframe, int count, int[] ids,
+            double[] x, double[] y, double[] heading, double[] speed) throws IOException {
+        out.writeInt(FRAME);
+        out.writeInt(step);
+        out.writeInt(count);
+        out.writeInt(keyframe ? KEYFRAME : 0);
+        for (int i = 0; i < count; i++)
+            out.writeInt(ids[i]);
+        pad(out, 4 * count);
+        writeColumn(out, x, count);
+        writeColumn(out, y, count);
+        writeColumn(out, heading, count);
+        writeColumn(out, speed, count);
+    }
+
+    /**
+     * Write a record saying an agent died
+     *
+     * @param out destination
+     * @param id id of the agent
+     * @throws IOException in case writing fails
+     */
+    static void writeDeath(DataOutputStream out, int id) throws IOException {
+        out.writeInt(DEATH);
+        out.writeInt(id);
+    }
+
+    /**
+     * Where the columns of doubles start in a frame record
+     *
+     * @param count how many agents are in the frame
+     * @return offset from the start of the record
+     */
+    static int columnsOffset(int count) {
+        return FRAME_HEADER + padded(4 * count);
+    }
+
+    /**
+     * @param length number of bytes
+     * @return length rounded up to a multiple of 8
+     */
+    static int padded(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * @param offset offset in a file
+     * @return offset rounded up to a multiple of 8
+     */
+    static long padded(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Check whether a file is a trajectory file rather than XML
+     *
+     * @param name name of the file
+     * @return true if it starts with MAGIC
+     * @throws IOException in case the file cannot be read
+     */
+    static boolean isTrajectory(String name) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(name));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeColumn(DataOutputStream out, double[] values, int count)
+    throws IOException {
+        for (int i = 0; i < count; i++)
+            out.writeDouble(values[i]);
+    }
+
+    private static void pad(DataOutputStream out, int length) throws IOException {
+        for (int i = length; i < padded(length); i++)
+            out.write(0);
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Converts logs of the history of a world between the XML
+ * format and the binary Trajectory format, in either direction.
+ *
+ * Converting a binary log written by a world gives the same
+ * XML log the world would have written.  Converting an XML log
+ * keeps every number exactly; the elements describing agents
+ * at the start keep their attributes, though not their layout.
+ * An XML log describes only the agents that exist at its first
+ * state; agents that appear later are left out, with a warning.
+ *
+ * @version 1.0
+ */
+public class TrajectoryConverter extends DefaultHandler {
+
+    /** Where the binary log is being written */
+    private final LogWriter log;
+    /** Used to construct error messages based on file position */
+    private Locator locator;
+    /** Horizontal extent of the world */
+    private int width = World.DEFAULT_WIDTH;
+    /** Vertical extent of the world */
+    private int height = World.DEFAULT_HEIGHT;
+    /** How many states have been started */
+    private int states;
+    /** Whether we are inside a state element */
+    private boolean inState;
+    /** Whether we are inside a defaults element */
+    private boolean inDefaults;
+    /** Whether the header has been written */
+    private boolean started;
+    /** Step of the first state */
+    private int firstStep;
+    /** XML elements describing the agents at the start */
+    private List<String> described = new ArrayList<String>();
+    /** Latest x, y, heading in degrees and speed of each agent, by id */
+    private Map<Integer, double[]> latest = new HashMap<Integer, double[]>();
+    /** Step of the state being read */
+    private int step;
+    /** Whether the state being read is marked as a keyframe */
+    private boolean keyframe;
+    /** Whether the log describes only agents that changed, except at keyframes */
+    private boolean delta;
+    /** Agents updated in the state being read, in order */
+    private List<Integer> updated = new ArrayList<Integer>();
+
+    /**
+     * Constructor for converting XML into a binary log
+     *
+     * @param log where to write the binary log
+     */
+    TrajectoryConverter(LogWriter log) {
+        this.log = log;
+    }
+
+    /**
+     * Convert an XML log into a binary log
+     *
+     * @param xml name of the XML log
+     * @param binary name of the binary log to write
+     * @throws SAXException in case the XML log is not valid
+     * @throws IOException in case a file cannot be read or written
+     */
+    public static void toBinary(String xml, String binary) throws SAXException, IOException {
+        LogWriter log = new LogWriter(binary, LogWriter.FlushPolicy.BUFFER);
+        try {
+            XMLReader xr = FlockingReader.newXMLReader();
+            TrajectoryConverter handler = new TrajectoryConverter(log);
+            xr.setContentHandler(handler);
+            xr.setErrorHandler(handler);
+            FileReader r = new FileReader(xml);
+            try {
+                xr.parse(new InputSource(r));
+            } finally {
+                r.close();
+            }
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Convert a binary log into an XML log
+     *
+     * @param binary name of the binary log
+     * @param xml name of the XML log to write
+     * @throws IOException in case a file cannot be read or written
+     */
+    public static void toXML(String binary, String xml) throws IOException {
+        TrajectoryReader in = new TrajectoryReader(binary);
+        LogWriter log = new LogWriter(xml, LogWriter.FlushPolicy.BUFFER);
+        try {
+            // a delta log is one with frames that leave agents out
+            boolean delta = false;
+            int tag;
+            while (!delta && (tag = in.next()) != 0) {
+                if (tag == Trajectory.FRAME && !in.getFrame().isKeyframe())
+                    delta = true;
+            }
+            in.rewind();
+            BufferedWriter out = log.out();
+            World.logHeader(out, in.getWidth(), in.getHeight(), delta);
+            World.logStateStart(out, in.getFirstStep(), true);
+            for (int i = 0; i < in.getAgentCount(); i++) {
+                out.write(in.getAgentXML(i));
+            }
+            World.logStateEnd(out);
+            log.commit();
+            while ((tag = in.next()) != 0) {
+                if (tag == Trajectory.FRAME) {
+                    TrajectoryReader.Frame f = in.getFrame();
+                    World.logStateStart(out, f.getStep(), false, delta && f.isKeyframe());
+                    for (int i = 0; i < f.size(); i++) {
+                        Agent.changelog(out, f.getId(i), f.getX(i), f.getY(i),
+                                f.getHeading(i), f.getSpeed(i));
+                    }
+                    World.logStateEnd(out);
+                } else {
+                    World.logDeath(out, in.getDeadId());
+                }
+                log.commit();
+            }
+            out.write("</" + World.XML_NAME + ">\n\n");
+            log.commit();
+        } finally {
+            log.close();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Event handlers for reading XML logs.
+    ////////////////////////////////////////////////////////////////////
+
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    public void startElement(String uri, String name, String qName, Attributes atts)
+    throws SAXException {
+        if (!World.XMLNS.equals(uri) && !"".equals(uri))
+            return;
+        if (FlockingReader.DEFAULT_ELEMENT.equals(name))
+            inDefaults = true;
+        if (inDefaults)
+            return;
+        if (World.XML_NAME.equals(name)) {
+            width = FlockingReader.getIntParam(atts, World.WIDTH_PARAM, World.DEFAULT_WIDTH, locator);
+            height = FlockingReader.getIntParam(atts, World.HEIGHT_PARAM, World.DEFAULT_HEIGHT, locator);
+            delta = FlockingReader.getBoolParam(atts, World.LOGDELTA_PARAM, false, locator);
+        } else if (World.STATE_NAME.equals(name)) {
+            states++;
+            inState = true;
+            step = FlockingReader.getIntParam(atts, World.STEP_NAME, step, locator);
+            keyframe = FlockingReader.getBoolParam(atts, World.KEYFRAME_NAME, false, locator);
+            if (states == 1)
+                firstStep = step;
+            else
+                start();
+            updated.clear();
+        } else if (World.DIE_NAME.equals(name)) {
+            start();
+            int id = FlockingReader.getIntParam(atts, Agent.ID_PARAM, 0, locator);
+            try {
+                Trajectory.writeDeath(log.data(), id);
+                log.commit();
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            latest.remove(id);
+        } else if (Agent.UPDATE.equals(name)) {
+            int id = FlockingReader.getIntParam(atts, Agent.ID_PARAM, 0, locator);
+            double[] values = latest.get(id);
+            if (values == null) {
+                System.err.println(FlockingReader.locationMsg(locator) + "update of unknown agent " + id + " left out");
+                return;
+            }
+            read(atts, values);
+            if (inState && states > 1)
+                updated.add(id);
+        } else if (!World.WAIT_NAME.equals(name)) {
+            if (started) {
+                System.err.println(FlockingReader.locationMsg(locator) + name + " appearing after the start left out");
+                return;
+            }
+            int id = FlockingReader.getIntParam(atts, Agent.ID_PARAM, 0, locator);
+            double[] values = new double[4];
+            read(atts, values);
+            latest.put(id, values);
+            described.add(describe(qName, atts));
+        }
+    }
+
+    public void endElement(String uri, String name, String qName) throws SAXException {
+        if (!World.XMLNS.equals(uri) && !"".equals(uri))
+            return;
+        if (FlockingReader.DEFAULT_ELEMENT.equals(name)) {
+            inDefaults = false;
+        } else if (World.STATE_NAME.equals(name)) {
+            inState = false;
+            if (states == 1)
+                return;
+            int n = updated.size();
+            int[] ids = new int[n];
+            double[] x = new double[n];
+            double[] y = new double[n];
+            double[] heading = new double[n];
+            double[] speed = new double[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = updated.get(i);
+                double[] values = latest.get(ids[i]);
+                x[i] = values[0];
+                y[i] = values[1];
+                heading[i] = values[2];
+                speed[i] = values[3];
+            }
+            try {
+                Trajectory.writeFrame(log.data(), step, keyframe || !delta, n, ids, x, y, heading, speed);
+                log.commitState();
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    public void endDocument() throws SAXException {
+        start();
+    }
+
+    /**
+     * Write the header of the binary log, if it has not been written yet
+     */
+    private void start() throws SAXException {
+        if (started)
+            return;
+        started = true;
+        try {
+            Trajectory.writeHeader(log.data(), width, height, firstStep, described);
+            log.commit();
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Read the dynamic attributes of an agent that are given,
+     * keeping earlier values for those that are not
+     *
+     * @param atts the XML attributes of the element
+     * @param values x, y, heading in degrees and speed, updated in place
+     */
+    private void read(Attributes atts, double[] values) throws SAXException {
+        values[0] = FlockingReader.getDoubleParam(atts, Agent.DynamicAgentAttributes.X_PARAM, values[0], locator);
+        values[1] = FlockingReader.getDoubleParam(atts, Agent.DynamicAgentAttributes.Y_PARAM, values[1], locator);
+        values[2] = FlockingReader.getDoubleParam(atts, Agent.DynamicAgentAttributes.HEADING_PARAM, values[2], locator);
+        values[3] = FlockingReader.getDoubleParam(atts, Agent.DynamicAgentAttributes.FORWARD_PARAM, values[3], locator);
+    }
+
+    /**
+     * Write an XML element with the given attributes, and no content
+     *
+     * @param qName name of the element
+     * @param atts its attributes
+     * @return text of the element
+     */
+    private static String describe(String qName, Attributes atts) {
+        StringBuilder text = new StringBuilder("   <" + qName);
+        for (int i = 0; i < atts.getLength(); i++) {
+            text.append(' ').append(atts.getQName(i)).append(Agent.OPEN);
+            String value = atts.getValue(i);
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                case '&': text.append("&amp;"); break;
+                case '<': text.append("&lt;"); break;
+                case '"': text.append("&quot;"); break;
+                default: text.append(c);
+                }
+            }
+            text.append('"');
+        }
+        text.append(" />\n");
+        return text.toString();
+    }
+
+    /**
+     * Command-line interface: converts a log in one format into
+     * the other, telling which is which by looking at the first file
+     *
+     * @param args names of the log to read and the log to write
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage error: run as <program> <from> <to> to convert a log between XML and binary.");
+            return;
+        }
+        try {
+            if (Trajectory.isTrajectory(args[0]))
+                toXML(args[0], args[1]);
+            else
+                toBinary(args[0], args[1]);
+        } catch (SAXException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
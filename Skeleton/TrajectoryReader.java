@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Reads a trajectory file, as described in Trajectory, by
+ * mapping it into memory.  Frames are read in place: the
+ * columns of a frame are views onto the mapped file, so
+ * nothing is copied or parsed however big the frame is.
+ *
+ * Read the records in order with next(), then look at the
+ * frame or death it describes.  The file is mapped a window
+ * at a time, as a MappedFile, so files of any size can be read;
+ * offsets in the file are longs.
+ *
+ * @version 1.1
+ */
+public class TrajectoryReader {
+
+    /**
+     * The state of the agents after one step, read in place
+     * from the mapped file.  Entry i of each column describes
+     * the same agent.
+     */
+    public static class Frame {
+        /** Step just simulated */
+        private final int step;
+        /** Whether the frame describes every agent */
+        private final boolean keyframe;
+        /** Ids of the agents */
+        private final IntBuffer ids;
+        /** Horizontal coordinates of the agents */
+        private final DoubleBuffer x;
+        /** Vertical coordinates of the agents */
+        private final DoubleBuffer y;
+        /** Headings of the agents, in degrees */
+        private final DoubleBuffer heading;
+        /** Forward speeds of the agents */
+        private final DoubleBuffer speed;
+
+        /**
+         * Constructor: views the frame record starting at an offset
+         *
+         * @param map the mapped record
+         * @param start offset of the record in map
+         */
+        Frame(ByteBuffer map, int start) {
+            step = map.getInt(start + 4);
+            int count = map.getInt(start + 8);
+            keyframe = (map.getInt(start + 12) & Trajectory.KEYFRAME) != 0;
+            ids = column(map, start + Trajectory.FRAME_HEADER, 4 * count).asIntBuffer();
+            int at = start + Trajectory.columnsOffset(count);
+            x = column(map, at, 8 * count).asDoubleBuffer();
+            y = column(map, at + 8 * count, 8 * count).asDoubleBuffer();
+            heading = column(map, at + 16 * count, 8 * count).asDoubleBuffer();
+            speed = column(map, at + 24 * count, 8 * count).asDoubleBuffer();
+        }
+
+        /**
+         * @return step just simulated
+         */
+        public int getStep() {
+            return step;
+        }
+
+        /**
+         * @return whether the frame describes every agent, rather
+         *         than only those that changed
+         */
+        public boolean isKeyframe() {
+            return keyframe;
+        }
+
+        /**
+         * @return how many agents are in the frame
+         */
+        public int size() {
+            return ids.limit();
+        }
+
+        /**
+         * Accessor
+         * @param i index of entry
+         * @return id of agent
+         */
+        public int getId(int i) {
+            return ids.get(i);
+        }
+
+        /**
+         * Accessor
+         * @param i index of entry
+         * @return horizontal coordinate of agent
+         */
+        public double getX(int i) {
+            return x.get(i);
+        }
+
+        /**
+         * Accessor
+         * @param i index of entry
+         * @return vertical coordinate of agent
+         */
+        public double getY(int i) {
+            return y.get(i);
+        }
+
+        /**
+         * Accessor
+         * @param i index of entry
+         * @return heading of agent, in degrees
+         */
+        public double getHeading(int i) {
+            return heading.get(i);
+        }
+
+        /**
+         * Accessor
+         * @param i index of entry
+         * @return forward speed of agent
+         */
+        public double getSpeed(int i) {
+            return speed.get(i);
+        }
+
+        /**
+         * Column accessors, for tools that work on whole columns;
+         * each call returns a new view of the same data
+         */
+
+        /**
+         * @return ids of the agents
+         */
+        public IntBuffer ids() {
+            return ids.duplicate();
+        }
+
+        /**
+         * @return horizontal coordinates of the agents
+         */
+        public DoubleBuffer xs() {
+            return x.duplicate();
+        }
+
+        /**
+         * @return vertical coordinates of the agents
+         */
+        public DoubleBuffer ys() {
+            return y.duplicate();
+        }
+
+        /**
+         * @return headings of the agents, in degrees
+         */
+        public DoubleBuffer headings() {
+            return heading.duplicate();
+        }
+
+        /**
+         * @return forward speeds of the agents
+         */
+        public DoubleBuffer speeds() {
+            return speed.duplicate();
+        }
+    }
+
+    /** The file, mapped into memory */
+    private final MappedFile map;
+    /** Horizontal extent of the world */
+    private final int width;
+    /** Vertical extent of the world */
+    private final int height;
+    /** Step the history starts at */
+    private final int firstStep;
+    /** XML elements describing each agent at the start */
+    private final String[] agents;
+    /** Offset of the first record */
+    private final long firstRecord;
+    /** Offset of the current record */
+    private long current;
+    /** Offset of the record after the current one */
+    private long following;
+    /** Length of the current record */
+    private int length;
+    /** Tag of the current record, 0 before the first and after the last */
+    private int tag;
+
+    /**
+     * Constructor: maps a file and reads its header
+     *
+     * @param name name of the file
+     * @throws IOException in case the file cannot be read or is not a trajectory
+     */
+    public TrajectoryReader(String name) throws IOException {
+        map = new MappedFile(name);
+        try {
+            if (map.getInt(0) != Trajectory.MAGIC)
+                throw new IOException(name + " is not a trajectory file");
+            if (map.getInt(4) != Trajectory.VERSION)
+                throw new IOException(name + " has unknown version " + map.getInt(4));
+            width = map.getInt(8);
+            height = map.getInt(12);
+            firstStep = map.getInt(16);
+            agents = new String[map.getInt(20)];
+            long at = 24;
+            for (int i = 0; i < agents.length; i++) {
+                byte[] text = new byte[map.getInt(at)];
+                map.get(at + 4, text);
+                agents[i] = new String(text, Trajectory.UTF8);
+                at += 4 + text.length;
+            }
+            firstRecord = Trajectory.padded(at);
+        } catch (RuntimeException e) {
+            // lengths running off the end of the file, or negative
+            throw new IOException(name + " has a broken header");
+        }
+        rewind();
+    }
+
+    /**
+     * @return horizontal extent of the world
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return vertical extent of the world
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return step the history starts at
+     */
+    public int getFirstStep() {
+        return firstStep;
+    }
+
+    /**
+     * @return how many agents there are at the start
+     */
+    public int getAgentCount() {
+        return agents.length;
+    }
+
+    /**
+     * @param i index of agent, in the order they were logged
+     * @return XML element describing the agent at the start
+     */
+    public String getAgentXML(int i) {
+        return agents[i];
+    }
+
+    /**
+     * Go back to before the first record
+     */
+    public void rewind() {
+        setPosition(firstRecord);
+    }
+
+    /**
+     * @return offset in the file of the current record
+     */
+    public long getRecordStart() {
+        return current;
+    }
+
+    /**
+     * @return offset in the file just after the current record,
+     *         where next() looks for the next one
+     */
+    public long getPosition() {
+        return following;
+    }
+
+    /**
+     * Go to a record start, as given by getRecordStart or
+     * getPosition, so that next() reads the record there
+     *
+     * @param offset offset in the file
+     */
+    public void setPosition(long offset) {
+        current = offset;
+        following = offset;
+        tag = 0;
+    }
+
+    /**
+     * Move on to the next record.  A record cut short at the
+     * end of the file is treated as the end.
+     *
+     * @return tag of the record, Trajectory.FRAME or
+     *         Trajectory.DEATH, or 0 if there are no more
+     */
+    public int next() {
+        current = following;
+        tag = 0;
+        long left = map.size() - current;
+        if (left < 8)
+            return 0;
+        int t = map.getInt(current);
+        long length;
+        if (t == Trajectory.FRAME) {
+            if (left < Trajectory.FRAME_HEADER)
+                return 0;
+            int count = map.getInt(current + 8);
+            // a frame must fit in one buffer, as must each column
+            if (count < 0 || count > Math.min(left, Integer.MAX_VALUE) / 32)
+                return 0;
+            length = Trajectory.columnsOffset(count) + 32L * count;
+        } else if (t == Trajectory.DEATH) {
+            length = 8;
+        } else {
+            return 0;
+        }
+        if (length > left || length > Integer.MAX_VALUE)
+            return 0;
+        this.length = (int) length;
+        following = current + length;
+        tag = t;
+        return tag;
+    }
+
+    /**
+     * @return the frame the current record describes
+     * @throws IllegalStateException if the current record is not a frame
+     */
+    public Frame getFrame() {
+        if (tag != Trajectory.FRAME)
+            throw new IllegalStateException("not at a frame");
+        return new Frame(map.slice(current, length), 0);
+    }
+
+    /**
+     * @return id of the agent the current record says died
+     * @throws IllegalStateException if the current record is not a death
+     */
+    public int getDeadId() {
+        if (tag != Trajectory.DEATH)
+            throw new IllegalStateException("not at a death");
+        return map.getInt(current + 4);
+    }
+
+    /**
+     * View part of the mapped file as a buffer of its own
+     */
+    private static ByteBuffer column(ByteBuffer map, int start, int length) {
+        ByteBuffer b = map.duplicate();
+        b.position(start);
+        b.limit(start + length);
+        return b.slice();
+    }
+}
@@ -1,40 +1,38 @@
-import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.awt.Image;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.awt.event.MouseMotionAdapter;
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * World calculates and displays the dynamics of a bunch of agents
+ * World calculates the dynamics of a bunch of agents
  * acting in an environment.
  * 
- * Revised to include double buffering drawing,
- * after: http://download.oracle.com/javase/1.3/docs/guide/awt/designspec/lightweights.html
+ * Revised to keep its own logical size, so it can run
+ * without a display; a WorldView shows it on screen.
  * 
  * @author Matthew Stone
- * @version 1.1
+ * @version 1.2
  */
 
-public class World extends Canvas {
+public class World {
 
     /**
      * Static class definitions
      */
 
-    /**
-     * Java AWT components are required to be serializable,
-     * and therefore require a long int id indicating what 
-     * version of the code the serialization comes from.
-     */
-    private static final long serialVersionUID = 1L;
-
     /**
      * Tolerance for double calculations - can be large
      * since the screen is described by integers
@@ -66,12 +64,75 @@ public class World extends Canvas {
     /** Attribute name for XML document recording world history */
     static final String LOGFILE_PARAM = "logfile";
 
+    /** Attribute name for when the history is written out: buffer, record or sync */
+    static final String LOGFLUSH_PARAM = "logflush";
+
+    /** Attribute name for how many records can wait for a background log writer, 0 for none */
+    static final String LOGQUEUE_PARAM = "logqueue";
+
+    /** Attribute name for what to do with steps when the log queue is full: block, coalesce or drop */
+    static final String LOGOVERFLOW_PARAM = "logoverflow";
+
+    /** Attribute name for the format of the log file: xml, or binary for a Trajectory */
+    static final String LOGFORMAT_PARAM = "logformat";
+
+    /** Boolean attribute for whether to log only agents that changed */
+    static final String LOGDELTA_PARAM = "logdelta";
+
+    /** Attribute name for how far an agent moves, in pixels, before a delta log records it */
+    static final String LOGPOSITION_PARAM = "logposition";
+
+    /** Attribute name for how far an agent turns, in degrees, before a delta log records it */
+    static final String LOGHEADING_PARAM = "logheading";
+
+    /** Attribute name for how much an agent's speed changes before a delta log records it */
+    static final String LOGSPEED_PARAM = "logspeed";
+
+    /** Attribute name for how many steps apart a delta log records every agent, 0 for never */
+    static final String LOGKEYFRAME_PARAM = "logkeyframe";
+
     /** Boolean attribute says whether to do simulation */
     static final String RUNNABLE_PARAM = "runnable";
 
     /** Boolean attribute for wheter to visualize debugging info */
     static final String DEBUG_PARAM = "debug";
 
+    /** Attribute name for how many neighbors each agent perceives, 0 for all */
+    static final String NEIGHBORS_PARAM = "neighbors";
+
+    /** Attribute name for how many threads agents think in */
+    static final String THREADS_PARAM = "threads";
+
+    /** Boolean attribute for whether all agents move at once */
+    static final String SIMULTANEOUS_PARAM = "simultaneous";
+
+    /** Boolean attribute for whether to time and count the phases of each step; on by default when debugging */
+    static final String STATS_PARAM = "stats";
+
+    /** Attribute name for how many calls to deliberate go by between those recorded for the flight recorder */
+    static final String DELIBERATESAMPLE_PARAM = "deliberatesample";
+
+    /** By default, one call to deliberate in this many is recorded for the flight recorder */
+    static final int DEFAULT_DELIBERATE_SAMPLING = 64;
+
+    /** Backing for the performance figures shown when debugging */
+    private static final Color HUD_BACKING = new Color(255, 255, 255, 192);
+
+    /** The kinds of thing an agent can look like, counted in each snapshot */
+    private static final Percept.ObjectCategory[] CATEGORIES = Percept.ObjectCategory.values();
+
+    /** Attribute name for how many times a second to show the world, 0 for after every step */
+    static final String FRAMERATE_PARAM = "framerate";
+
+    /** Attribute name for the most steps to take back to back when the world falls behind */
+    static final String CATCHUP_PARAM = "catchup";
+
+    /** By default, at most this many steps are taken back to back to catch up */
+    static final int DEFAULT_CATCHUP = 5;
+
+    /** Agents are handed out to threads in batches of at most this many */
+    static final int BATCH_SIZE = 32;
+
     /** Element tag for delay in replaying log data */
     static final String WAIT_NAME = "wait";
 
@@ -87,6 +148,9 @@ public class World extends Canvas {
     /** Attribute for index of state */
     static final String STEP_NAME = "step";
 
+    /** Boolean attribute for a state that describes every agent */
+    static final String KEYFRAME_NAME = "keyframe";
+
     /** Element tag for death */
     static final String DIE_NAME = "kill";
 
@@ -201,11 +265,10 @@ public class World extends Canvas {
      * we treat the obstacle agent as though it's standing still.
      * We use brute force to handle the fact that the world is a torus.
      * We separately check the four ways the obstacle could wrap around.
-     * It is possible to build highly optimized data structures
-     * that minimize the number of pairwise collision checks that need to 
-     * be made at each time step.  We don't implement anything like this.
-     * We ultimately check every pair of agents for collision at each
-     * time step.
+     * To avoid checking every pair of agents at each time step,
+     * during a step the agents that can get in the way are kept in
+     * a CollisionIndex, and a moving agent is only checked against
+     * the ones near the path it is taking.
      * 
      * The algorithms for collision detection were adapted from GPL 
      * code on the web at two places:
@@ -322,6 +385,9 @@ public class World extends Canvas {
         return (dxB * cy - dyB * cx) / (dyB * dxA - dxB * dyA);
     }
 
+    /** What the collision routines give when a path meets nothing */
+    public static final double NO_COLLISION = Double.POSITIVE_INFINITY;
+
     /**
      * Convenience function for Double objects---that might be null
      * @param d1
@@ -340,32 +406,74 @@ public class World extends Canvas {
             return d2;
     }
 
+    /**
+     * Convenience function for collision fractions that might be
+     * NO_COLLISION, as min is for Double objects that might be null
+     * @param d1
+     * @param d2
+     * @return smallest value from d1 and d2
+     *         or NO_COLLISION if both d1 and d2 are
+     */
+    public static double earlier(double d1, double d2) {
+        if (d1 == NO_COLLISION)
+            return d2;
+        if (d2 == NO_COLLISION)
+            return d1;
+        if (d1 <= d2)
+            return d1;
+        else
+            return d2;
+    }
+
+    /**
+     * @param d fraction of a path, or NO_COLLISION
+     * @return d as a Double object, or null for NO_COLLISION
+     */
+    private static Double box(double d) {
+        return d == NO_COLLISION ? null : Double.valueOf(d);
+    }
+
     /**
      * How far do you get on path from (ax0, ay0) to (ax1, ay1)
      * before you intersect the rectangle at (bl, bt, br, bb)?
+     * Kept for compatibility: see firstOverlap, which gives
+     * NO_COLLISION where this gives null.
      */
     public static Double detectOverlap(double ax0, double ay0, double ax1, double ay1,
             double bl, double bt, double br, double bb)
     {
-        Double closest = null;
+        return box(firstOverlap(ax0, ay0, ax1, ay1, bl, bt, br, bb));
+    }
+
+    /**
+     * How far do you get on path from (ax0, ay0) to (ax1, ay1)
+     * before you intersect the rectangle at (bl, bt, br, bb)?
+     * 
+     * @return fraction of the path, or NO_COLLISION if it
+     *         does not meet the rectangle
+     */
+    public static double firstOverlap(double ax0, double ay0, double ax1, double ay1,
+            double bl, double bt, double br, double bb)
+    {
+        double closest = NO_COLLISION;
 
         // left
         if (isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bt, bl, bb)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bt, bl, bb));            
+            closest = earlier(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bt, bl, bb));
         }
         // right
         if (isLineIntersectingLine(ax0, ay0, ax1, ay1, br, bt, br, bb)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, br, bt, br, bb));
+            closest = earlier(closest, getIntersection(ax0, ay0, ax1, ay1, br, bt, br, bb));
         }
 
         // bottom
         if (World.isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bb, br, bb)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bb, br, bb));
+            closest = earlier(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bb, br, bb));
         }
 
         // top
         if (isLineIntersectingLine(ax0, ay0, ax1, ay1, bl, bt, br, bt)) {
-            closest = min(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bt, br, bt));
+            closest = earlier(closest, getIntersection(ax0, ay0, ax1, ay1, bl, bt, br, bt));
         }
 
         return closest;
@@ -373,6 +481,8 @@ public class World extends Canvas {
 
     /**
      * Detect collision
+     * Kept for compatibility: see firstCollision, which gives
+     * NO_COLLISION where this gives null.
      * 
      * @param a moving agent
      * @param ax1 x coordinate of endpoint of a's path at this time step
@@ -387,18 +497,62 @@ public class World extends Canvas {
      */
     public static Double detectCollision(Agent a, double ax1, double ay1, int wx, int wy, Agent b)
     {
-        final double ax0 = a.getLocX();
-        final double ay0 = a.getLocY();
-        final double size = (double) b.getSize() / 2;
-        final double bl = b.getLocX() - size;
-        final double bt = b.getLocY() - size;
-        final double br = b.getLocX() + size;
-        final double bb = b.getLocY() + size;
+        return box(firstCollision(a.getLocX(), a.getLocY(), ax1, ay1, wx, wy,
+                b.getLocX(), b.getLocY(), (double) b.getSize() / 2));
+    }
 
-        return min(min(detectOverlap(ax0, ay0, ax1, ay1, bl, bt, br, bb),
-                detectOverlap(ax0, ay0, ax1, ay1, bl - wx, bt, br - wx, bb)),
-                min(detectOverlap(ax0, ay0, ax1, ay1, bl, bt - wy, br, bb - wy),
-                        detectOverlap(ax0, ay0, ax1, ay1, bl - wx, bt - wy, br - wx, bb - wy)));
+    /**
+     * Detect collision of a path with a square box, on the torus
+     * 
+     * @param ax0 x coordinate of start of path
+     * @param ay0 y coordinate of start of path
+     * @param ax1 x coordinate of end of path
+     * @param ay1 y coordinate of end of path
+     * @param wx  width of the world (for torus computations)
+     * @param wy  height of the world (for torus computations)
+     * @param bx x coordinate of center of box
+     * @param by y coordinate of center of box
+     * @param half half the width of the box
+     * @return fraction of the path that can be travelled before
+     *         meeting the box, or NO_COLLISION if it is not met
+     */
+    public static double firstCollision(double ax0, double ay0, double ax1, double ay1,
+            int wx, int wy, double bx, double by, double half)
+    {
+        final double bl = bx - half;
+        final double bt = by - half;
+        final double br = bx + half;
+        final double bb = by + half;
+
+        return earlier(earlier(firstOverlap(ax0, ay0, ax1, ay1, bl, bt, br, bb),
+                firstOverlap(ax0, ay0, ax1, ay1, bl - wx, bt, br - wx, bb)),
+                earlier(firstOverlap(ax0, ay0, ax1, ay1, bl, bt - wy, br, bb - wy),
+                        firstOverlap(ax0, ay0, ax1, ay1, bl - wx, bt - wy, br - wx, bb - wy)));
+    }
+
+    /**
+     * Detect collisions of one path with many square boxes at
+     * once, as firstCollision does for each box
+     * 
+     * @param ax0 x coordinate of start of path
+     * @param ay0 y coordinate of start of path
+     * @param ax1 x coordinate of end of path
+     * @param ay1 y coordinate of end of path
+     * @param wx  width of the world (for torus computations)
+     * @param wy  height of the world (for torus computations)
+     * @param bx x coordinates of centers of boxes
+     * @param by y coordinates of centers of boxes
+     * @param half half the widths of the boxes
+     * @param n how many boxes there are
+     * @param hits filled in with the fraction of the path that can
+     *             be travelled before meeting each box, or NO_COLLISION
+     */
+    public static void firstCollisions(double ax0, double ay0, double ax1, double ay1,
+            int wx, int wy, double[] bx, double[] by, double[] half, int n, double[] hits)
+    {
+        for (int i = 0; i < n; i++) {
+            hits[i] = firstCollision(ax0, ay0, ax1, ay1, wx, wy, bx[i], by[i], half[i]);
+        }
     }
 
     /**
@@ -407,58 +561,207 @@ public class World extends Canvas {
 
     /** All the active entities that "live" in the world */
     private List<Agent> agents;
-    /** The agent that is currently being dragged by the user in the UI */
-    private Agent clicked;
+    /** The agents in the environment, by id */
+    private final AgentRegistry registry = new AgentRegistry();
+    /** Timing and counts of steps, when enabled */
+    private final StepStats stats = new StepStats();
+    /** The agents that need to deliberate and act, in the same order as agents */
+    private List<Agent> movers;
+    /** The agents that just sit there */
+    private StaticLayer statics;
+    /** Whether statics and movers need to be worked out again */
+    private boolean layersDirty;
+    /** How many agents have ever joined the world */
+    private int joinCount;
+    /** Horizontal extent of the environment */
+    private final int width;
+    /** Vertical extent of the environment */
+    private final int height;
+    /** Where the world is displayed, null if nowhere */
+    private WorldView view;
+    /** Latest picture of the world, for the view to draw; null until one is made */
+    private volatile Snapshot shown;
+    /** Collects the picture of the world each time one is made */
+    private final Snapshot.Builder sketch = new Snapshot.Builder();
     /** Where dynamaics history should be written, null means don't write */
     private String logfile;
+    /** When history is written out to the log file */
+    private LogWriter.FlushPolicy logFlush = LogWriter.FlushPolicy.RECORD;
+    /** How many records can wait for a background log writer, 0 for none */
+    private int logQueue = 0;
+    /** What to do with steps when the log queue is full */
+    private LogWriter.Overflow logOverflow = LogWriter.Overflow.BLOCK;
+    /** Whether the log file is a binary Trajectory rather than XML */
+    private boolean binaryLog;
+    /** Whether steps are logged only for agents that changed */
+    private boolean deltaLog;
+    /** How far an agent moves, along either axis, before a delta log records it */
+    private double deltaPosition = 0.5;
+    /** How far an agent turns, in radians, before a delta log records it */
+    private double deltaHeading = Agent.DEGREES_TO_RADIANS;
+    /** How much an agent's speed changes before a delta log records it */
+    private double deltaSpeed = 0.05;
+    /** How many steps apart a delta log records every agent, 0 for never */
+    private int keyframeInterval = 100;
+    /** Open log file, null if not logging */
+    private LogWriter log;
+    /** Ids of agents in the state being collected for the log */
+    private int[] logIds = new int[0];
+    /** Horizontal coordinates of agents in the state */
+    private double[] logX = new double[0];
+    /** Vertical coordinates of agents in the state */
+    private double[] logY = new double[0];
+    /** Headings of agents in the state, in degrees */
+    private double[] logHeading = new double[0];
+    /** Forward speeds of agents in the state */
+    private double[] logSpeed = new double[0];
     /** If runnable is false this is inert history data */
     private boolean runnable;
     /** Default amount of time to wait between steps of simulation */
     private int delay;
+    /** How many times a second to show the world, 0 for after every step */
+    private int frameRate;
+    /** Most steps to take back to back when the world falls behind */
+    private int catchUp = DEFAULT_CATCHUP;
     /** Whether to visualize debugging info */
     private boolean debug;
     /** How many steps of simulation have been run */
     private int stepCount;
+    /** How many nearest agents each agent perceives, 0 for no limit */
+    private int topological;
+    /** How many threads agents think in */
+    private int parallelism = 1;
+    /** Threads for agents to think in, null when they think in the calling thread */
+    private ForkJoinPool pool;
+    /** Whether all agents move at once, rather than one after another */
+    private boolean simultaneous;
+    /** One call to deliberate in this many, in each thread, is recorded for the flight recorder */
+    private int deliberateSampling = DEFAULT_DELIBERATE_SAMPLING;
+
+    /** Moving agents in list order, as of the start of the current step */
+    private Agent[] snapshot = new Agent[0];
+    /** How many entries of snapshot are in use */
+    private int snapshotSize;
+    /** Spatial index over snapshot */
+    private SpatialGrid grid = new SpatialGrid();
+    /** Whether grid is current; false when no agent has a limited perception radius */
+    private boolean gridReady = false;
+    /** Broad phase for collision detection over snapshot */
+    private CollisionIndex obstacles = new CollisionIndex();
+    /** Whether obstacles is current */
+    private boolean obstaclesReady = false;
+    /** Which agents in snapshot other agents could run into */
+    private boolean[] collidable = new boolean[0];
+    /** Where each agent in snapshot is headed, when all agents move at once */
+    private double[] headedX = new double[0];
+    private double[] headedY = new double[0];
+    /** What each agent in snapshot runs into on the way, null for nothing */
+    private Agent[] bumps = new Agent[0];
+    /** How far along its way each agent in snapshot runs into something */
+    private double[] bumpAt = new double[0];
+    /** All agents in list order, when perceiving nearest neighbors */
+    private Agent[] everyone = new Agent[0];
+    /** Index over everyone for finding nearest neighbors */
+    private final NeighborTree tree = new NeighborTree();
+    /** Whether tree is current */
+    private boolean treeReady = false;
+    /** Scratch space for building percepts, for each thread that makes agents think */
+    private final ThreadLocal<Senses> senses = new ThreadLocal<Senses>() {
+        @Override
+        protected Senses initialValue() {
+            return new Senses();
+        }
+    };
 
-    /** image for double buffering */
-    private Image offscreen;
-    
     /**
      * Instance code
      */
 
     /**
-     * Helper class that organizes the UI processing
-     * so you can click on agents and select them.
+     * Scratch space used while constructing percepts and
+     * checking for collisions.  Each thread that works on
+     * agents has its own, so that agents can be handled in
+     * parallel without any of them writing to anything
+     * the others use.
      */
-    class ClickToSelectAgent extends MouseAdapter {
-        public void mousePressed(MouseEvent e) {
-            int x = e.getX();
-            int y = e.getY();
-            for (Agent a: agents) {
-                if (a.isInside(x, y)) {
-                    clicked = a;
-                    break;
-                } 
+    private class Senses {
+        /** Where the percepts for the agent that is thinking are put */
+        final PerceptBuffer percepts = new PerceptBuffer();
+        /** Scratch space for queries against the indexes over snapshot */
+        int[] moving = new int[0];
+        /** Scratch space for queries against statics */
+        int[] still = new int[0];
+        /** Scratch space for agents from both snapshot and statics, in list order */
+        Agent[] nearby = new Agent[0];
+        /** Scratch space for nearest neighbor queries against tree */
+        int[] closest = new int[0];
+        /** Nearest neighbor queries against tree */
+        final NeighborTree.Search search = tree.newSearch();
+        /** Scratch space for the centers of the agents a path might meet */
+        double[] boxX = new double[0];
+        double[] boxY = new double[0];
+        /** Scratch space for half the sizes of the agents a path might meet */
+        double[] boxHalf = new double[0];
+        /** Scratch space for how far along the path each of those is met */
+        double[] hits = new double[0];
+        /** How far along its path an agent collides, from the last collision check */
+        double collision;
+        /** Calls to deliberate since the last one sampled for the flight recorder */
+        int unsampled;
+
+        /**
+         * Make sure there is room to work with every agent in the world
+         * 
+         * @param count how many agents there are
+         */
+        void fit(int count) {
+            if (nearby.length < count) {
+                moving = new int[count];
+                still = new int[count];
+                nearby = new Agent[count];
+                closest = new int[count];
+                boxX = new double[count];
+                boxY = new double[count];
+                boxHalf = new double[count];
+                hits = new double[count];
             }
         }
-
-        public void mouseReleasedEvent(MouseEvent e) {
-            clicked = null;
-        }
     }
 
     /**
-     * Helper class that organizes the UI processing
-     * so you can drag agents and move them.
+     * Task making the moving agents in part of the snapshot think,
+     * or plan their moves, splitting the work up among threads
+     * if there is a lot of it
      */
-    class DragToMoveAgent extends MouseMotionAdapter {
-        public void mouseDragged(MouseEvent e) {
-            int x = e.getX();
-            int y = e.getY();
-            if (clicked != null) {
-                clicked.setLocX(x);
-                clicked.setLocY(y);
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** First position in snapshot to cover */
+        private final int lo;
+        /** Position in snapshot just past the ones to cover */
+        private final int hi;
+        /** True to make agents think, false to make them plan moves */
+        private final boolean thinking;
+
+        Batch(int lo, int hi, boolean thinking) {
+            this.lo = lo;
+            this.hi = hi;
+            this.thinking = thinking;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= BATCH_SIZE) {
+                for (int i = lo; i < hi; i++) {
+                    if (!snapshot[i].isAlive())
+                        continue;
+                    if (thinking)
+                        makeAgentThink(snapshot[i]);
+                    else
+                        planMove(snapshot[i]);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Batch(lo, mid, thinking), new Batch(mid, hi, thinking));
             }
         }
     }
@@ -473,22 +776,53 @@ public class World extends Canvas {
      * @param wait number of milliseconds to delay between simulation steps
      */
     public World(int width, int height, String log, boolean run, int wait, boolean debug) {
-        setSize(width, height);
+        this.width = width;
+        this.height = height;
         logfile = log;
         runnable = run;
         delay = wait;
         agents = new LinkedList<Agent>();
+        movers = new LinkedList<Agent>();
+        statics = new StaticLayer(Collections.<Agent>emptyList(), width, height, 0);
+        layersDirty = false;
+        joinCount = 0;
         this.debug = debug;
         stepCount = 0;
-        addMouseListener(new ClickToSelectAgent());
-        addMouseMotionListener(new DragToMoveAgent());
-        offscreen = null;
     }
 
     /**
      * Getters and setters
      */
 
+    /**
+     * @return horizontal extent of the environment
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return vertical extent of the environment
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return where the world is displayed, null if nowhere
+     */
+    public WorldView getView() {
+        return view;
+    }
+
+    /**
+     * Display the world somewhere, or nowhere
+     * @param v view to redraw as the world changes, null for none
+     */
+    public void setView(WorldView v) {
+        view = v;
+    }
+
     /**
      * Get what step the simulation has gotten to
      * @return current step value of simulation
@@ -505,6 +839,135 @@ public class World extends Canvas {
         stepCount = s;
     }
 
+    /**
+     * @return how many nearest agents each agent perceives, 0 for no limit
+     */
+    public int getTopologicalNeighbors() {
+        return topological;
+    }
+
+    /**
+     * Limit each agent to perceiving its k nearest neighbors,
+     * among the agents in its field of view and within its
+     * perception radius, as real flocks seem to do.
+     * 
+     * @param k how many neighbors each agent perceives, 0 for no limit
+     */
+    public void setTopologicalNeighbors(int k) {
+        topological = Math.max(k, 0);
+    }
+
+    /**
+     * @return how many threads agents think in
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Let agents perceive and deliberate in several threads at once.
+     * Each agent thinks about the world as it was at the start of
+     * the step, and nothing it decides is used until all agents are
+     * done, so this gives the same results as thinking one at a time.
+     * Agents' deliberate methods must not change anything but the
+     * agent itself.
+     * 
+     * @param threads how many threads to use, 1 to think in the
+     *                thread running the simulation
+     */
+    public void setParallelism(int threads) {
+        threads = Math.max(threads, 1);
+        if (threads == parallelism)
+            return;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = threads;
+        if (parallelism > 1)
+            pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @return whether all agents move at once
+     */
+    public boolean getSimultaneousMoves() {
+        return simultaneous;
+    }
+
+    /**
+     * Choose how agents move.  Normally each agent moves in turn,
+     * in list order, and runs into other agents where they are
+     * after the agents before it have moved.  When all agents
+     * move at once, each one works out where it is going and
+     * what it runs into from where everybody was at the start
+     * of the step, which can be done in parallel.  Then agents
+     * take their new positions, and the fights that result from
+     * their collisions are settled in list order, skipping any
+     * fight where one side has already died.
+     * 
+     * @param atOnce true for all agents to move at once
+     */
+    public void setSimultaneousMoves(boolean atOnce) {
+        simultaneous = atOnce;
+    }
+
+    /**
+     * @return how many calls to deliberate there are, in each
+     *         thread, for each one recorded as a StepEvents.Deliberate
+     *         event while the flight recorder records those
+     */
+    public int getDeliberateSampling() {
+        return deliberateSampling;
+    }
+
+    /**
+     * Set how many calls to deliberate there are, in each thread,
+     * for each one recorded for the flight recorder
+     * 
+     * @param interval 1 to record every call, or more
+     */
+    public void setDeliberateSampling(int interval) {
+        deliberateSampling = Math.max(interval, 1);
+    }
+
+    /**
+     * @return how many times a second the world is shown while
+     *         it runs, 0 for after every step
+     */
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Set how often the world is shown while it runs.  At a
+     * given rate, steps do not show the world: whatever runs
+     * the world shows it, at that rate.
+     * 
+     * @param rate times a second, 0 or less for after every step
+     */
+    public void setFrameRate(int rate) {
+        frameRate = Math.max(rate, 0);
+    }
+
+    /**
+     * @return most steps taken back to back when the world
+     *         falls behind its delay
+     */
+    public int getCatchUp() {
+        return catchUp;
+    }
+
+    /**
+     * Set how many steps may be taken back to back when the world
+     * falls behind its delay; beyond that, steps are dropped
+     * 
+     * @param steps 1 to never catch up, or more
+     */
+    public void setCatchUp(int steps) {
+        catchUp = Math.max(steps, 1);
+    }
+
     /**
      * Should this environment display new dynamics
      * @return true if yes, false if replaying old data
@@ -525,7 +988,35 @@ public class World extends Canvas {
      * @param a agent object to add
      */
     public void addAgent(Agent a) {
+        a.joined = joinCount++;
         agents.add(a);
+        registry.add(a);
+        if (a.isStationary())
+            layersDirty = true;
+        else
+            movers.add(a);
+    }
+
+    /**
+     * Add many agents to the world environment at once,
+     * in order, as if by addAgent
+     * 
+     * @param added agent objects to add
+     */
+    public void addAgents(Collection<Agent> added) {
+        for (Agent a: added)
+            addAgent(a);
+    }
+
+    /**
+     * Remove every agent from the world environment at once
+     */
+    public void removeAllAgents() {
+        agents.clear();
+        registry.clear();
+        movers.clear();
+        statics = new StaticLayer(Collections.<Agent>emptyList(), width, height, 0);
+        layersDirty = false;
     }
 
     /**
@@ -535,7 +1026,82 @@ public class World extends Canvas {
      * @param a agent object to remove.
      */
     public void removeAgent(Agent a) {
-        agents.remove(a);
+        if (agents.remove(a))
+            unregister(a);
+        if (statics.contains(a))
+            layersDirty = true;
+        else
+            movers.remove(a);
+    }
+
+    /**
+     * Take an agent out of the index by id, and if another
+     * living agent has the same id, put the first one in its place,
+     * so that getAgent finds what a search of the agents in
+     * order would
+     * 
+     * @param a agent being removed
+     */
+    private void unregister(Agent a) {
+        if (!registry.remove(a))
+            return;
+        for (Agent b: agents) {
+            if (b != a && b.getId() == a.getId() && b.isAlive()) {
+                registry.promote(b);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Let the world know that an agent has been changed
+     * from outside the simulation, for example by an
+     * update element or by the user dragging it around.
+     * 
+     * @param a agent object that changed
+     */
+    public void agentChanged(Agent a) {
+        if (a.isStationary() || statics.contains(a))
+            layersDirty = true;
+    }
+
+    /**
+     * Sort the agents into the ones that just sit there
+     * and the ones that need to deliberate and act,
+     * and index the ones that sit there.
+     */
+    private void rebuildLayers() {
+        List<Agent> stationary = new ArrayList<Agent>();
+        double cellSize = 0;
+        movers = new LinkedList<Agent>();
+        for (Agent a: agents) {
+            if (a.isStationary()) {
+                stationary.add(a);
+            } else {
+                movers.add(a);
+                double r = a.getPerceptionRadius();
+                if (!Double.isInfinite(r) && r > cellSize)
+                    cellSize = r;
+            }
+        }
+        statics = new StaticLayer(stationary, getWidth(), getHeight(), cellSize);
+        layersDirty = false;
+    }
+
+    /**
+     * @return the agents in the world, in the order they joined;
+     *         not to be changed except through the world
+     */
+    List<Agent> getAgents() {
+        return agents;
+    }
+
+    /**
+     * @return timing and counts of this world's steps, which are
+     *         only kept once enabled
+     */
+    public StepStats getStats() {
+        return stats;
     }
 
     /**
@@ -545,150 +1111,559 @@ public class World extends Canvas {
      * @return agent object if found, null otherwise
      */
     public Agent getAgent(int id) {
-        for (Agent a: agents) {
-            if (id == a.getId()) {
-                return a;
-            }
-        }
-        return null;
+        return registry.get(id);
     }
 
     /**
      * Producing change logs
      */
 
+    /**
+     * @return when history is written out to the log file
+     */
+    public LogWriter.FlushPolicy getLogFlush() {
+        return logFlush;
+    }
+
+    /**
+     * Choose when history is written out to the log file:
+     * in big batches, after each step, or after each step
+     * and waiting for it to reach the disk.  Takes effect
+     * when logging starts.
+     * 
+     * @param policy when to write history out
+     */
+    public void setLogFlush(LogWriter.FlushPolicy policy) {
+        logFlush = policy;
+    }
+
+    /**
+     * @return how many records can wait for a background log writer
+     */
+    public int getLogQueue() {
+        return logQueue;
+    }
+
+    /**
+     * Write the log file in a background thread, so the simulation
+     * does not wait for the disk, with up to CAPACITY records waiting
+     * to be written.  Takes effect when logging starts.
+     * 
+     * @param capacity how many records can wait, 0 to write the log
+     *                 in the thread running the simulation
+     */
+    public void setLogQueue(int capacity) {
+        logQueue = Math.max(capacity, 0);
+    }
+
+    /**
+     * @return what happens to steps when the log queue is full
+     */
+    public LogWriter.Overflow getLogOverflow() {
+        return logOverflow;
+    }
+
+    /**
+     * Choose what happens to a step when the log queue is full:
+     * wait for room, replace the newest step waiting to be written,
+     * or leave the step out of the log.  Only waiting keeps the log
+     * complete; the other two keep the simulation from slowing down
+     * to the speed of the disk.  Deaths are always logged.
+     * Takes effect when logging starts.
+     * 
+     * @param policy what to do with steps
+     */
+    public void setLogOverflow(LogWriter.Overflow policy) {
+        logOverflow = policy;
+    }
+
+    /**
+     * @return how many steps the log being written has left out
+     *         because its queue was full, 0 if not logging
+     */
+    public long getLogDropped() {
+        return stats.getLogDropped();
+    }
+
+    /**
+     * @return how many steps the log being written has merged into
+     *         later ones because its queue was full, 0 if not logging
+     */
+    public long getLogCoalesced() {
+        return stats.getLogCoalesced();
+    }
+
+    /**
+     * @return whether the log file is a binary Trajectory rather than XML
+     */
+    public boolean isBinaryLog() {
+        return binaryLog;
+    }
+
+    /**
+     * Choose whether to write the log file in the binary format
+     * described in Trajectory, which is much smaller and faster
+     * to read back, or as XML.  TrajectoryConverter converts
+     * one to the other.  Takes effect when logging starts.
+     * 
+     * @param binary true for binary, false for XML
+     */
+    public void setBinaryLog(boolean binary) {
+        binaryLog = binary;
+    }
+
+    /**
+     * @return whether steps are logged only for agents that changed
+     */
+    public boolean isDeltaLog() {
+        return deltaLog;
+    }
+
+    /**
+     * Choose whether to log, at each step, only the agents that
+     * changed by more than the tolerances given to setLogTolerances
+     * since they were last logged, rather than every agent.  Agents
+     * that just sit there are then logged only at keyframes.  Each
+     * step is kept in the log whatever the overflow policy, since a
+     * lost step would leave agents out of place until they were next
+     * logged.  Takes effect when logging starts.
+     * 
+     * @param delta true to log only changes
+     */
+    public void setDeltaLog(boolean delta) {
+        deltaLog = delta;
+    }
+
+    /**
+     * Choose how much an agent can change before a delta log
+     * records it.  Replaying the log puts every agent within
+     * these tolerances of where it really was.
+     * 
+     * @param position how far an agent can move along either axis, in pixels
+     * @param degrees how far an agent can turn, in degrees
+     * @param speed how much an agent's speed can change
+     */
+    public void setLogTolerances(double position, double degrees, double speed) {
+        deltaPosition = Math.max(position, 0);
+        deltaHeading = Math.max(degrees, 0) * Agent.DEGREES_TO_RADIANS;
+        deltaSpeed = Math.max(speed, 0);
+    }
+
+    /**
+     * @return how many steps apart a delta log records every agent
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Have a delta log record every agent every so many steps,
+     * so that the world can be recovered from any keyframe
+     * without reading the log from the start.
+     * 
+     * @param steps how many steps apart, 0 for no keyframes
+     */
+    public void setKeyframeInterval(int steps) {
+        keyframeInterval = Math.max(steps, 0);
+    }
+
     /**
      * Open XML log file - if world is supposed to have one -
      * and write header information giving world parameters.
      * Then describe each of the agents in the world,
      * in complete detail, giving the initial state
      * of the simulation.
+     * The file stays open until logging finishes.
      */
-    public void startLogging() {
-        if (logfile != null) {
+    public synchronized void startLogging() {
+        if (logfile != null && log == null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, false));
-                out.write("<?xml version=\"1.0\"?>\n\n");
-                out.write("<" + XML_NAME + 
-                        " xmlns=\"" + XMLNS +
-                        "\" " + WIDTH_PARAM +
-                        "=\"" + Integer.toString(getWidth()) +
-                        "\" " + HEIGHT_PARAM +
-                        "=\"" + Integer.toString(getHeight()) +
-                        "\" " + RUNNABLE_PARAM + 
-                        "=\"false\" " + DEBUG_PARAM +
-                        "=\"true\" >\n"
-                );
-                out.write("  <" + STATE_NAME + " " +
-                        STEP_NAME + "=\"" + Integer.toString(stepCount) + "\" >\n");
-                for (Agent a: agents) {
-                    a.log(out);
+                log = new LogWriter(logfile, logFlush, logQueue, logOverflow);
+                stats.watchLog(log);
+                if (binaryLog) {
+                    List<String> described = new ArrayList<String>(agents.size());
+                    for (Agent a: agents) {
+                        StringWriter text = new StringWriter();
+                        BufferedWriter out = new BufferedWriter(text);
+                        a.log(out);
+                        out.flush();
+                        described.add(text.toString());
+                    }
+                    Trajectory.writeHeader(log.data(), getWidth(), getHeight(), stepCount, described);
+                } else {
+                    BufferedWriter out = log.out();
+                    logHeader(out, getWidth(), getHeight(), deltaLog);
+                    logStateStart(out, stepCount, true);
+                    for (Agent a: agents) {
+                        a.log(out);
+                    }
+                    logStateEnd(out);
                 }
-                out.write("  </" + STATE_NAME + ">\n");
-                out.write("  <" + WAIT_NAME + " " + WAIT_INTERVAL + "=\"" +
-                        Integer.toString(DEFAULT_WAIT) + "\"/>\n");
-                out.close();
+                if (deltaLog) {
+                    for (Agent a: agents) {
+                        a.noteLogged();
+                    }
+                }
+                log.commit();
             } catch (IOException e) {
             }
         }
     }
 
     /**
-     * Open XML log file - if world is supposed to have one -
-     * and write final close ending main XML element.
+     * Write final close ending main XML element to the log file,
+     * if there is one, and close it.  Safe to call from a shutdown
+     * hook while the simulation is running, since logging methods
+     * take turns, so the closing tag never lands in the middle of
+     * a step.
      */ 
-    public void finishLogging() {
-        if (logfile != null) {
+    public synchronized void finishLogging() {
+        if (log != null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, true));
-                out.write("</" + XML_NAME + ">\n\n");
-                out.close();
+                if (!binaryLog) {
+                    log.out().write("</" + XML_NAME + ">\n\n");
+                    log.commit();
+                }
+                log.close();
             } catch (IOException e) {
             }
-            logfile = null;
+            stats.watchLog(null);
+            log = null;
         }
+        logfile = null;
     }
 
     /**
-     * Open XML log file - if world is supposed to have one -
-     * and append state description describing the dynamic parameters
+     * Append to the XML log file - if world is keeping one -
+     * state description describing the dynamic parameters
      * of all the agents in the environment at the current
-     * time step.
+     * time step.  A delta log describes only the agents that
+     * have changed, except at keyframes.  Only the numbers are
+     * collected here; the log writes them out, on its own thread
+     * if it has one.
      */
-    private void logStep() {
-        if (logfile != null) {
+    private synchronized void logStep() {
+        if (log != null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, true));
-                out.write("  <" + STATE_NAME + " " +
-                        STEP_NAME + "=\"" + Integer.toString(stepCount) + "\">\n");
-                for (Agent a: agents) {
-                    a.changelog(out);
-                }
-                out.write("  </" + STATE_NAME + ">\n");
-                out.write("  <" + WAIT_NAME + " " + WAIT_INTERVAL + "=\"" +
-                        Integer.toString(DEFAULT_WAIT) + "\"/>\n");
-                out.close();
+                boolean keyframe = deltaLog && keyframeInterval > 0 && stepCount % keyframeInterval == 0;
+                LoggedState state = logState(keyframe);
+                if (deltaLog)
+                    log.commit(state);
+                else
+                    log.commitState(state);
             } catch (IOException e) {
             }
         }
     }
 
     /**
-     * Open XML log file - if world is supposed to have one -
-     * and append instructions to remove display of agent a
+     * Decide whether to describe an agent in the step being logged,
+     * noting it as logged if so
+     * 
+     * @param a agent
+     * @param keyframe whether the step describes every agent
+     * @return true to describe it
+     */
+    private boolean shouldLog(Agent a, boolean keyframe) {
+        if (!deltaLog)
+            return true;
+        if (!keyframe && !a.changedSinceLogged(deltaPosition, deltaHeading, deltaSpeed))
+            return false;
+        a.noteLogged();
+        return true;
+    }
+
+    /**
+     * Append to the XML log file - if world is keeping one -
+     * instructions to remove display of agent a
      * for subsequent steps of the simulation.
      * @param a agent that should not be rendered in future steps
      */
-    private void logDeath(Agent a) {
-        if (logfile != null) {
+    private synchronized void logDeath(Agent a) {
+        if (log != null) {
             try {
-                BufferedWriter out = new BufferedWriter(new FileWriter(logfile, true));
-                out.write("  <" + DIE_NAME + " " + Agent.ID_PARAM + "=\"" + Integer.toString(a.getId()) + "\" />\n");
-                out.close();
+                if (binaryLog)
+                    Trajectory.writeDeath(log.data(), a.getId());
+                else
+                    logDeath(log.out(), a.getId());
+                log.commit();
             } catch (IOException e) {
             }
         }
     }
 
     /**
-     * Callback method when window is resized
-     * (among other things)
+     * Collect the dynamic state of the agents to be logged
+     * for the current step
+     * 
+     * @param keyframe whether to describe every agent in a delta log;
+     *                 states of other logs always describe every agent
+     * @return the state, to be written to the log
+     */
+    private LoggedState logState(boolean keyframe) {
+        int n = agents.size();
+        if (logIds.length < n) {
+            logIds = new int[n];
+            logX = new double[n];
+            logY = new double[n];
+            logHeading = new double[n];
+            logSpeed = new double[n];
+        }
+        int i = 0;
+        for (Agent a: agents) {
+            if (!shouldLog(a, keyframe))
+                continue;
+            logIds[i] = a.getId();
+            logX[i] = a.getLocX();
+            logY[i] = a.getLocY();
+            logHeading[i] = a.getHeading() * Agent.RADIANS_TO_DEGREES;
+            logSpeed[i] = a.getForwardV();
+            i++;
+        }
+        return new LoggedState(binaryLog, stepCount, keyframe, keyframe || !deltaLog,
+                Arrays.copyOf(logIds, i), Arrays.copyOf(logX, i), Arrays.copyOf(logY, i),
+                Arrays.copyOf(logHeading, i), Arrays.copyOf(logSpeed, i));
+    }
+
+    /**
+     * The dynamic state of the agents at one step, as numbers,
+     * written out to an XML or binary log by the log writer
      */
-    public void invalidate() {
-    	super.invalidate();
-    	offscreen = null;
+    private static final class LoggedState implements LogWriter.Record {
+        /** Whether to write a binary frame rather than XML */
+        private final boolean binary;
+        /** Step the state follows */
+        private final int step;
+        /** Whether to mark the XML state as a keyframe */
+        private final boolean keyframe;
+        /** Whether the state describes every agent */
+        private final boolean full;
+        /** Ids of the agents described */
+        private final int[] ids;
+        /** Horizontal coordinates of the agents */
+        private final double[] x;
+        /** Vertical coordinates of the agents */
+        private final double[] y;
+        /** Headings of the agents, in degrees */
+        private final double[] heading;
+        /** Forward speeds of the agents */
+        private final double[] speed;
+
+        LoggedState(boolean binary, int step, boolean keyframe, boolean full, int[] ids,
+                double[] x, double[] y, double[] heading, double[] speed) {
+            this.binary = binary;
+            this.step = step;
+            this.keyframe = keyframe;
+            this.full = full;
+            this.ids = ids;
+            this.x = x;
+            this.y = y;
+            this.heading = heading;
+            this.speed = speed;
+        }
+
+        public void write(BufferedWriter out, DataOutputStream data) throws IOException {
+            if (binary) {
+                Trajectory.writeFrame(data, step, full, ids.length, ids, x, y, heading, speed);
+            } else {
+                logStateStart(out, step, false, keyframe);
+                for (int i = 0; i < ids.length; i++)
+                    Agent.changelog(out, ids[i], x[i], y[i], heading[i], speed[i]);
+                logStateEnd(out);
+            }
+        }
     }
-    
+
     /**
-     * override update to *not* erase the background
+     * Pieces of the XML log, shared with TrajectoryConverter
      */
-    public void update(Graphics g) {
-    	paint(g);
+
+    /**
+     * Write the start of an XML log, up to the opening world tag
+     * 
+     * @param out destination
+     * @param width horizontal extent of the world
+     * @param height vertical extent of the world
+     * @param delta whether states describe only agents that changed,
+     *              so that only keyframes describe every agent
+     * @throws IOException in case writing fails
+     */
+    static void logHeader(BufferedWriter out, int width, int height, boolean delta) throws IOException {
+        out.write("<?xml version=\"1.0\"?>\n\n");
+        out.write("<" + XML_NAME + 
+                " xmlns=\"" + XMLNS +
+                "\" " + WIDTH_PARAM +
+                "=\"" + Integer.toString(width) +
+                "\" " + HEIGHT_PARAM +
+                "=\"" + Integer.toString(height) +
+                "\" " + RUNNABLE_PARAM + 
+                "=\"false\" " + DEBUG_PARAM +
+                "=\"true\" " +
+                (delta ? LOGDELTA_PARAM + "=\"true\" " : "") +
+                ">\n"
+        );
     }
-    
+
     /**
-     * Callback method to redisplay the world
+     * Write the opening tag of a state in an XML log
+     * 
+     * @param out destination
+     * @param step step the state follows
+     * @param first whether this is the state describing agents in full
+     * @throws IOException in case writing fails
      */
-    public void paint(Graphics og) {
-    	int width = getSize().width;
-    	int height = getSize().height;
-    	if (offscreen == null) {
-    		offscreen = createImage(width, height);
-    	}
-    	Graphics g = offscreen.getGraphics();
-    	g.setClip(0,0, width, height);
-    	g.clearRect(0,0, width, height);
+    static void logStateStart(BufferedWriter out, int step, boolean first) throws IOException {
+        logStateStart(out, step, first, false);
+    }
+
+    /**
+     * Write the opening tag of a state in an XML log
+     * 
+     * @param out destination
+     * @param step step the state follows
+     * @param first whether this is the state describing agents in full
+     * @param keyframe whether to mark the state as describing every agent
+     * @throws IOException in case writing fails
+     */
+    static void logStateStart(BufferedWriter out, int step, boolean first, boolean keyframe)
+    throws IOException {
+        out.write("  <" + STATE_NAME + " " +
+                STEP_NAME + "=\"" + Integer.toString(step) + 
+                (keyframe ? "\" " + KEYFRAME_NAME + "=\"true" : "") +
+                (first ? "\" >\n" : "\">\n"));
+    }
+
+    /**
+     * Write the closing tag of a state in an XML log,
+     * and the pause that follows it
+     * 
+     * @param out destination
+     * @throws IOException in case writing fails
+     */
+    static void logStateEnd(BufferedWriter out) throws IOException {
+        out.write("  </" + STATE_NAME + ">\n");
+        out.write("  <" + WAIT_NAME + " " + WAIT_INTERVAL + "=\"" +
+                Integer.toString(DEFAULT_WAIT) + "\"/>\n");
+    }
+
+    /**
+     * Write the death of an agent to an XML log
+     * 
+     * @param out destination
+     * @param id id of the agent
+     * @throws IOException in case writing fails
+     */
+    static void logDeath(BufferedWriter out, int id) throws IOException {
+        out.write("  <" + DIE_NAME + " " + Agent.ID_PARAM + "=\"" + Integer.toString(id) + "\" />\n");
+    }
+
+    /**
+     * Ask the view, if there is one, to redisplay the world.
+     * A snapshot of the world as it is now is made for the
+     * view to draw, so this must be called by the thread that
+     * changes the world, not the one that paints the window.
+     */
+    public void repaint() {
+        if (view != null) {
+            publish();
+            view.repaint();
+        }
+    }
+
+    /**
+     * Make a snapshot of the world as it is now, and hand it
+     * over for drawing in place of the last one
+     */
+    private void publish() {
+        int[] seen = new int[CATEGORIES.length];
+        for (Agent a: agents) {
+            a.draw(sketch);
+            seen[a.looksLike().ordinal()]++;
+        }
+        shown = sketch.build(stepCount, seen);
+    }
+
+    /**
+     * Draw the latest snapshot of the world, and the step
+     * count and performance figures if debugging.  Only the
+     * snapshot is looked at, never the agents themselves, so
+     * this can be called while the world is being stepped.
+     * 
+     * @param g graphics information
+     */
+    public void draw(Graphics g) {
+        Snapshot s = shown;
+        if (s == null)
+            return;
+        s.paint(g, this);
+
     	if (debug) {
     	    g.setColor(Color.BLACK);
-            g.drawString(Integer.toString(stepCount), 3, getHeight() - 3);
+            g.drawString(Integer.toString(s.getStep()), 3, getHeight() - 3);
+            if (stats.isEnabled())
+                drawStats(g, s);
         }
+    }
+
+    /**
+     * Draw the recent performance figures above the step count:
+     * time of each phase, steps per second against the rate the
+     * delay asks for, agents of each kind, percepts per agent,
+     * and how fast the stepping thread allocates memory.
+     * 
+     * @param g graphics information
+     * @param s snapshot being drawn, for the agents of each kind
+     */
+    private void drawStats(Graphics g, Snapshot s) {
+        String[] lines = new String[5];
+        double target = delay > 0 ? 1000.0 / delay : 0;
+        lines[0] = String.format("%.1f steps/s (target %s), step %.2f ms",
+                stats.recentStepsPerSecond(), target > 0 ? String.format("%.1f", target) : "none",
+                stats.recentNanos(StepStats.Phase.STEP) / 1e6);
+        StringBuilder phases = new StringBuilder();
+        for (StepStats.Phase p: StepStats.Phase.values()) {
+            if (p != StepStats.Phase.STEP)
+                phases.append(String.format("%s %.2f  ", p.name().toLowerCase(), stats.recentNanos(p) / 1e6));
+        }
+        lines[1] = phases.append("ms").toString();
+        StringBuilder kinds = new StringBuilder();
+        for (Percept.ObjectCategory c: CATEGORIES) {
+            if (s.count(c) > 0)
+                kinds.append(c.name().toLowerCase()).append(' ').append(s.count(c)).append("  ");
+        }
+        lines[2] = kinds.length() > 0 ? kinds.toString().trim() : "no agents";
+        lines[3] = String.format("percepts per agent: mean %.1f, max %d",
+                stats.lastMeanPercepts(), stats.lastMaxPercepts());
+        lines[4] = String.format("allocating %.1f MB/s", stats.recentAllocationRate() / (1024 * 1024));
+
+        // on a pale backing, so the lines stay legible over the agents' forces
+        FontMetrics metrics = g.getFontMetrics();
+        int height = metrics.getHeight();
+        int width = 0;
+        for (String line: lines)
+            width = Math.max(width, metrics.stringWidth(line));
+        int top = getHeight() - 3 - height * (lines.length + 1);
+        g.setColor(HUD_BACKING);
+        g.fillRect(0, top + metrics.getDescent(), width + 6, height * lines.length);
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < lines.length; i++)
+            g.drawString(lines[i], 3, getHeight() - 3 - height * (lines.length - i));
+    }
 
+    /**
+     * Find the agent at a point, for example where the user clicked
+     * 
+     * @param x horizontal coordinate
+     * @param y vertical coordinate
+     * @return first agent in the list that covers the point, null if none
+     */
+    public Agent agentAt(int x, int y) {
         for (Agent a: agents) {
-            a.draw(g);
+            if (a.isInside(x, y)) {
+                return a;
+            }
         }
-        
-        og.drawImage(offscreen, 0, 0, this);
-        g.dispose();
+        return null;
     }
 
     /**
@@ -894,27 +1869,57 @@ public class World extends Canvas {
      * Override this method to add noise in sensors,
      * and other aspects of simulated visual cognition.
      * 
+     * Does the same calculations as distance() and direction(),
+     * but shares the displacement between them, and gives up
+     * before any trigonometry if SEEN is out of SEER's range.
+     * 
      * @param seer Agent who will be supplied this percept
      * @param seen Agent that this percept describes
-     * @return Element of list giving input to SEER's deliberation
+     * @param ps where to add the percept
+     * @return true if SEER can see SEEN, and a percept was added to PS
      */
-    protected Percept senseAgent(Agent seer, Agent seen) {
-        double direction = direction(seer,seen);
+    protected boolean senseAgent(Agent seer, Agent seen, PerceptBuffer ps) {
+        double dx = displacementOnCircle(seer.getLocX(), seen.getLocX(), getWidth());
+        double dy = displacementOnCircle(seer.getLocY(), seen.getLocY(), getHeight());
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > seer.getPerceptionRadius())
+            return false;
+
+        double direction = displacementOnCircle(seer.getHeading(), Math.atan2(dy, dx), 2 * Math.PI);
 
         if (Math.abs(direction) <= seer.getFieldOfViewEachSide()) {
             // Seer sees things exactly as they are
-            return new Percept(seen.looksLike(),
-                    seen.getColor(),
-                    distance(seer, seen),
-                    direction(seer, seen),
+            ps.add(seen.looksLike(),
+                    seen.getColor().getRGB(),
+                    distance,
+                    direction,
                     relativeHeading(seer, seen),
                     seen.getForwardV());
+            return true;
         }
         else
-            return null;
+            return false;
 
     }
 
+    /**
+     * Construct the percept SEER gets of SEEN, as a separate object.
+     * The simulation itself perceives through the buffered version
+     * of senseAgent, so override that one to change what agents see.
+     * 
+     * @param seer Agent who will be supplied this percept
+     * @param seen Agent that this percept describes
+     * @return Element of list giving input to SEER's deliberation,
+     *         or null if SEER cannot see SEEN
+     */
+    protected Percept senseAgent(Agent seer, Agent seen) {
+        PerceptBuffer ps = new PerceptBuffer(1);
+        if (senseAgent(seer, seen, ps))
+            return ps.get(0);
+        else
+            return null;
+    }
+
     /**
      * Run a step of deliberation on Agent a.
      * Construct the percept A gets now and
@@ -925,20 +1930,250 @@ public class World extends Canvas {
      * @param a One of the agents in the world
      */
     protected void makeAgentThink(Agent a) {
-
-        // A can see everybody else in the world
-        List<Percept> ps = new LinkedList<Percept>();
-        for (Agent seen : agents) {
-            if (seen != a) {
-                Percept p = senseAgent(a,seen);
-                if (p != null)
-                    ps.add(p);
+        double radius = a.getPerceptionRadius();
+        Senses scratch = senses.get();
+        scratch.fit(agents.size());
+        PerceptBuffer ps = scratch.percepts;
+        ps.clear();
+
+        if (treeReady) {
+            // A can see its nearest neighbors only
+            senseNearest(a, scratch);
+        } else if (!gridReady || Double.isInfinite(radius)) {
+            // A can see anybody else in the world, if they are in range
+            for (Agent seen : agents) {
+                if (seen != a)
+                    senseAgent(a, seen, ps);
             }
+        } else {
+            // A can only see the agents in nearby cells of the grids
+            int n = grid.query(a.getLocX(), a.getLocY(), radius, scratch.moving);
+            int m = statics.near(a.getLocX(), a.getLocY(), radius, scratch.still);
+            n = merge(scratch.moving, n, scratch.still, m, scratch.nearby);
+            Agent[] nearby = scratch.nearby;
+            for (int i = 0; i < n; i++) {
+                Agent seen = nearby[i];
+                if (seen != a)
+                    senseAgent(a, seen, ps);
+            }
+            Arrays.fill(nearby, 0, n, null);
         }
 
+        if (stats.isEnabled())
+            stats.countPercepts(ps.size());
+        if (++scratch.unsampled >= deliberateSampling) {
+            scratch.unsampled = 0;
+            if (StepEvents.recordingDeliberation()) {
+                StepEvents.Deliberate event = new StepEvents.Deliberate();
+                event.begin();
+                a.deliberate(ps);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.agentClass = a.getClass();
+                    event.percepts = ps.size();
+                    event.intentions = a.intentionCount();
+                    event.commit();
+                }
+                return;
+            }
+        }
         a.deliberate(ps);
     }
 
+    /**
+     * Construct percepts for the nearest agents that Agent A
+     * can see, up to the topological neighbor limit, and add
+     * them to PS in the order they appear in the agent list.
+     * Starts by looking at the closest few agents, and looks
+     * at more if too many of them are out of sight, but never
+     * at agents beyond the distance A can see.
+     * 
+     * @param a Agent doing the sensing
+     * @param scratch where to put the percepts, and space to work in
+     */
+    private void senseNearest(Agent a, Senses scratch) {
+        PerceptBuffer ps = scratch.percepts;
+        Agent[] nearby = scratch.nearby;
+        int[] closest = scratch.closest;
+        double radius = a.getPerceptionRadius();
+        int want = topological + 1;
+        int kept = 0;
+        int checked = 0;
+        while (true) {
+            // agents out of range are never found, so a search that
+            // comes up short has found everything the seer could see
+            int n = scratch.search.nearest(a.getLocX(), a.getLocY(), want, radius, closest);
+            // ranking is exact, so earlier candidates come first again
+            for (int i = checked; i < n && kept < topological; i++) {
+                Agent seen = tree.get(closest[i]);
+                if (seen != a && senseAgent(a, seen, ps))
+                    nearby[kept++] = seen;
+            }
+            checked = n;
+            if (kept == topological || n < want)
+                break;
+            want *= 2;
+        }
+
+        // put back in list order, so the answer looks like other modes'
+        for (int i = 1; i < kept; i++) {
+            Agent seen = nearby[i];
+            int j = i;
+            while (j > 0 && nearby[j - 1].joined > seen.joined) {
+                nearby[j] = nearby[j - 1];
+                j--;
+            }
+            nearby[j] = seen;
+        }
+        ps.clear();
+        for (int i = 0; i < kept; i++) {
+            senseAgent(a, nearby[i], ps);
+        }
+        Arrays.fill(nearby, 0, kept, null);
+    }
+
+    /**
+     * Put together agents found in snapshot and in statics
+     * into nearby, in the order they appear in the agent list.
+     * 
+     * @param moving positions in snapshot, in increasing order
+     * @param n how many entries of moving are in use
+     * @param still positions in statics, in increasing order
+     * @param m how many entries of still are in use
+     * @param nearby where to put the agents
+     * @return how many entries of nearby are in use
+     */
+    private int merge(int[] moving, int n, int[] still, int m, Agent[] nearby) {
+        int i = 0, j = 0, k = 0;
+        while (i < n && j < m) {
+            Agent a = snapshot[moving[i]];
+            Agent b = statics.get(still[j]);
+            if (a.joined < b.joined) {
+                nearby[k++] = a;
+                i++;
+            } else {
+                nearby[k++] = b;
+                j++;
+            }
+        }
+        while (i < n)
+            nearby[k++] = snapshot[moving[i++]];
+        while (j < m)
+            nearby[k++] = statics.get(still[j++]);
+        return k;
+    }
+
+    /**
+     * Record where all the moving agents are at the start of a step,
+     * so that percepts can be built from nearby agents only.
+     * Cells in the grid are as large as the largest limited
+     * perception radius, so each query examines a handful of cells.
+     */
+    private void indexAgents() {
+        if (snapshot.length < movers.size()) {
+            snapshot = new Agent[movers.size()];
+            collidable = new boolean[movers.size()];
+            headedX = new double[movers.size()];
+            headedY = new double[movers.size()];
+            bumps = new Agent[movers.size()];
+            bumpAt = new double[movers.size()];
+        }
+        if (everyone.length < agents.size()) {
+            everyone = new Agent[agents.size()];
+        }
+        snapshotSize = 0;
+        double cellSize = 0;
+        for (Agent a: movers) {
+            a.slot = snapshotSize;
+            snapshot[snapshotSize++] = a;
+            double r = a.getPerceptionRadius();
+            if (!Double.isInfinite(r) && r > cellSize)
+                cellSize = r;
+        }
+
+        if (cellSize > 0) {
+            grid.rebuild(snapshot, snapshotSize, getWidth(), getHeight(), cellSize);
+            gridReady = true;
+        }
+
+        if (topological > 0) {
+            int n = 0;
+            for (Agent a: agents) {
+                everyone[n++] = a;
+            }
+            tree.rebuild(everyone, n, getWidth(), getHeight());
+            treeReady = true;
+        }
+    }
+
+    /**
+     * Put the agents that something could run into in the
+     * broad phase index for collision detection: agents that
+     * obstruct anybody, and agents that look like something
+     * that anybody attacks.  Agents that die during the step
+     * start to look like corpses, so if corpses get attacked,
+     * everybody is included.
+     */
+    private void indexObstacles() {
+        // stationary agents never attack, since they never move,
+        // and they all sit in the collision index in statics anyway
+        Percept.ObjectCategory[] categories = Percept.ObjectCategory.values();
+        Set<Percept.ObjectCategory> attacked = EnumSet.noneOf(Percept.ObjectCategory.class);
+        for (int i = 0; i < snapshotSize; i++) {
+            for (Percept.ObjectCategory c: categories) {
+                if (snapshot[i].behaviorOnApproach(c) == Agent.InteractiveBehavior.ATTACK)
+                    attacked.add(c);
+            }
+        }
+
+        boolean everybody = attacked.contains(Percept.ObjectCategory.CORPSE);
+        int largest = 0;
+        for (int i = 0; i < snapshotSize; i++) {
+            Agent b = snapshot[i];
+            boolean include = everybody || attacked.contains(b.looksLike());
+            for (int j = 0; !include && j < categories.length; j++) {
+                include = b.behaviorOnApproach(categories[j]) == Agent.InteractiveBehavior.OBSTRUCT;
+            }
+            collidable[i] = include;
+            if (include && b.getSize() > largest)
+                largest = b.getSize();
+        }
+
+        obstacles.rebuild(snapshot, collidable, snapshotSize, getWidth(), getHeight(), 2 * largest);
+        obstaclesReady = true;
+    }
+
+    /**
+     * Drop references held for the current step so that
+     * dead agents can be garbage collected.
+     */
+    private void releaseIndex() {
+        gridReady = false;
+        treeReady = false;
+        obstaclesReady = false;
+        for (int i = 0; i < snapshotSize; i++) {
+            snapshot[i].slot = -1;
+            snapshot[i] = null;
+            bumps[i] = null;
+        }
+        snapshotSize = 0;
+        Arrays.fill(everyone, null);
+    }
+
+    /**
+     * Check whether it would matter if moving agent A ran into
+     * agent B: B gets in A's way or A wants to attack B.
+     *
+     * @param a Agent who wants to move
+     * @param b Agent that might be in the way
+     * @return true if A has to check its path against B
+     */
+    private static boolean interacts(Agent a, Agent b) {
+        return a != b &&
+            (b.behaviorOnApproach(a.looksLike()) == Agent.InteractiveBehavior.OBSTRUCT ||
+                    a.behaviorOnApproach(b.looksLike()) == Agent.InteractiveBehavior.ATTACK);
+    }
+
     /**
      * Process the simulated input to agent A's effectors
      * designed to get A to location (newX, newY) in the world.
@@ -953,71 +2188,195 @@ public class World extends Canvas {
      * @param newY Desired updated vertical coordinate
      */
     public void tryToMove(Agent a, double newX, double newY) {
-        Double collision = null;
-        Agent bumped = null;
-        int width = getWidth();
-        int height = getHeight();
-
         // make sure you're actually moving
         if (a.getLocX() == newX && a.getLocY() == newY)
             return;
 
-        int dxunit, dyunit;
+        Senses scratch = senses.get();
+        scratch.fit(agents.size());
+        Agent bumped = firstInPath(a, newX, newY, scratch);
+        place(a, newX, newY, bumped != null ? scratch.collision : Double.NaN);
+        if (obstaclesReady)
+            obstacles.moved(a.slot, a.getLocX(), a.getLocY());
 
-        if (newX > a.getLocX()) 
-            dxunit = 1;
-        else if (newX == a.getLocX())
-            dxunit = 0;
-        else 
-            dxunit = -1;
+        // process interaction
+        if (bumped != null)
+            settle(a, bumped);
+    }
 
-        if (newY > a.getLocY())
-            dyunit = 1;
-        else if (newY == a.getLocY())
-            dyunit = 0;
-        else
-            dyunit = -1;
+    /**
+     * Find the first agent that moving agent A would run into,
+     * in a way that matters, on the way to (newX, newY).
+     * Checks against nearby agents only, if it can.
+     * 
+     * @param a Agent who wants to move
+     * @param newX Desired updated horizontal coordinate
+     * @param newY Desired updated vertical coordinate
+     * @param scratch space to work in; if an agent is found,
+     *                scratch.collision is set to how far along
+     *                the way A runs into it
+     * @return the agent A runs into, or null if none
+     */
+    private Agent firstInPath(Agent a, double newX, double newY, Senses scratch) {
+        Agent[] nearby = scratch.nearby;
+        int n;
+
+        if (obstaclesReady) {
+            n = obstacles.query(a.getLocX(), a.getLocY(), newX, newY, scratch.moving);
+            int m = statics.inPath(a.getLocX(), a.getLocY(), newX, newY, scratch.still);
+            n = merge(scratch.moving, n, scratch.still, m, nearby);
+        } else {
+            n = 0;
+            for (Agent b: agents)
+                nearby[n++] = b;
+        }
 
-        // check for collisions
-        for (Agent b: agents) {
-            if (a != b) {
-                if (b.behaviorOnApproach(a.looksLike()) == Agent.InteractiveBehavior.OBSTRUCT ||
-                        a.behaviorOnApproach(b.looksLike()) == Agent.InteractiveBehavior.ATTACK) {
-                    Double c = detectCollision(a, newX, newY, width, height, b);
-                    if (c != null) {
-                        if (collision == null || collision.doubleValue() > c.doubleValue()) {
-                            collision = c;
-                            bumped = b;
-                        }
-                    }
-                }
+        // keep the agents that matter, and check the path against them all
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            Agent b = nearby[i];
+            if (interacts(a, b)) {
+                nearby[m] = b;
+                scratch.boxX[m] = b.getLocX();
+                scratch.boxY[m] = b.getLocY();
+                scratch.boxHalf[m] = (double) b.getSize() / 2;
+                m++;
+            }
+        }
+        firstCollisions(a.getLocX(), a.getLocY(), newX, newY, getWidth(), getHeight(),
+                scratch.boxX, scratch.boxY, scratch.boxHalf, m, scratch.hits);
+        if (stats.isEnabled())
+            stats.countCollisionTests(m);
+
+        double collision = NO_COLLISION;
+        Agent bumped = null;
+        for (int i = 0; i < m; i++) {
+            double c = scratch.hits[i];
+            if (c != NO_COLLISION && (bumped == null || collision > c)) {
+                collision = c;
+                bumped = nearby[i];
             }
         }
+        Arrays.fill(nearby, 0, n, null);
 
+        if (bumped != null)
+            scratch.collision = collision;
+        return bumped;
+    }
+
+    /**
+     * Move agent A towards (newX, newY), stopping just short of
+     * where it collides with something, and wrapping its position
+     * onto the torus.
+     * 
+     * @param a Agent who is moving
+     * @param newX Desired updated horizontal coordinate
+     * @param newY Desired updated vertical coordinate
+     * @param collision how far along the way A collides, NaN if it doesn't
+     */
+    private void place(Agent a, double newX, double newY, double collision) {
         // limit amount moved by collision
-        if (collision != null) {
-            newX = a.getLocX() + collision.doubleValue() * (newX - a.getLocX()) - dxunit;
-            newY = a.getLocY() + collision.doubleValue() * (newY - a.getLocY()) - dyunit;
+        if (!Double.isNaN(collision)) {
+            int dxunit, dyunit;
+
+            if (newX > a.getLocX()) 
+                dxunit = 1;
+            else if (newX == a.getLocX())
+                dxunit = 0;
+            else 
+                dxunit = -1;
+
+            if (newY > a.getLocY())
+                dyunit = 1;
+            else if (newY == a.getLocY())
+                dyunit = 0;
+            else
+                dyunit = -1;
+
+            newX = a.getLocX() + collision * (newX - a.getLocX()) - dxunit;
+            newY = a.getLocY() + collision * (newY - a.getLocY()) - dyunit;
         }
 
         // wrap motion in torus
         a.setLocX(clampToCircle(newX, getWidth()));
         a.setLocY(clampToCircle(newY, getHeight()));
+    }
 
-        // process interaction
-        if (bumped != null) {
-            if (bumped.behaviorOnApproach(a.looksLike()) == Agent.InteractiveBehavior.OBSTRUCT) {
-                if (bumped.getStrength() > a.getStrength()) 
-                    a.die();
-            }
-            if (a.behaviorOnApproach(bumped.looksLike()) == Agent.InteractiveBehavior.ATTACK) {
-                if (bumped.getStrength() > a.getStrength())
-                    a.die();
-                else
-                    bumped.die();
+    /**
+     * Settle what happens when moving agent A runs into BUMPED:
+     * A may die against an obstruction, or the two may fight.
+     * 
+     * @param a Agent who moved
+     * @param bumped Agent it ran into
+     */
+    private void settle(Agent a, Agent bumped) {
+        if (bumped.behaviorOnApproach(a.looksLike()) == Agent.InteractiveBehavior.OBSTRUCT) {
+            if (bumped.getStrength() > a.getStrength()) 
+                a.die();
+        }
+        if (a.behaviorOnApproach(bumped.looksLike()) == Agent.InteractiveBehavior.ATTACK) {
+            if (bumped.getStrength() > a.getStrength())
+                a.die();
+            else
+                bumped.die();
+        }
+    }
+
+    /**
+     * Work out where moving agent A is headed this step, and what
+     * it runs into on the way, from where everybody was at the start
+     * of the step, without moving anybody.  Only A itself changes,
+     * so several threads can plan moves at once.
+     * 
+     * @param a Agent who is about to move
+     */
+    private void planMove(Agent a) {
+        int i = a.slot;
+        a.steer();
+        double newX = a.nextLocX();
+        double newY = a.nextLocY();
+        headedX[i] = newX;
+        headedY[i] = newY;
+        bumps[i] = null;
+        if (a.getLocX() == newX && a.getLocY() == newY)
+            return;
+
+        Senses scratch = senses.get();
+        scratch.fit(agents.size());
+        bumps[i] = firstInPath(a, newX, newY, scratch);
+        bumpAt[i] = scratch.collision;
+    }
+
+    /**
+     * Move all the living agents at once: plan every move,
+     * in parallel if there are threads to do it, then put
+     * everybody where they are headed, then settle fights
+     * in list order.
+     */
+    private void moveAtOnce() {
+        if (pool != null) {
+            pool.invoke(new Batch(0, snapshotSize, false));
+        } else {
+            for (int i = 0; i < snapshotSize; i++) {
+                if (snapshot[i].isAlive())
+                    planMove(snapshot[i]);
             }
         }
 
+        // nobody has died yet this step, so everybody who planned a move makes it
+        for (int i = 0; i < snapshotSize; i++) {
+            Agent a = snapshot[i];
+            if (a.isAlive() && (a.getLocX() != headedX[i] || a.getLocY() != headedY[i]))
+                place(a, headedX[i], headedY[i], bumps[i] != null ? bumpAt[i] : Double.NaN);
+        }
+
+        // only agents that moved can have bumped into anything
+        for (int i = 0; i < snapshotSize; i++) {
+            Agent a = snapshot[i];
+            Agent bumped = bumps[i];
+            if (bumped != null && a.isAlive() && bumped.isAlive())
+                settle(a, bumped);
+        }
     }
 
     /**
@@ -1026,14 +2385,31 @@ public class World extends Canvas {
      */
     private void removeCorpses() {
         LinkedList<Agent> alive = new LinkedList<Agent>();
+        int dead = 0;
         for (Agent a: agents) {
             if (a.isAlive())
                 alive.add(a);
-            else
+            else {
                 logDeath(a);
+                unregister(a);
+                dead++;
+            }
         }
 
-        agents = alive;
+        if (dead > 0) {
+            if (stats.isEnabled())
+                stats.countKilled(dead);
+            agents = alive;
+            alive = new LinkedList<Agent>();
+            for (Agent a: movers) {
+                if (a.isAlive())
+                    alive.add(a);
+            }
+            // if not all the dead were movers, some stationary agent died
+            if (movers.size() - alive.size() < dead)
+                layersDirty = true;
+            movers = alive;
+        }
     }
 
     /**
@@ -1043,27 +2419,73 @@ public class World extends Canvas {
      * this behavior.
      */
     public void stepWorld() {
+        // the clock is only read when timing
+        boolean timed = stats.isEnabled();
+        long start = timed ? stats.startStep() : 0;
+        long lap = start;
+
         stepCount++;
+        StepEvents.Step event = new StepEvents.Step();
+        event.begin();
+        StepEvents.Phase phase = StepEvents.begin(stepCount, StepStats.Phase.THINK);
+
+        // Stationary agents are left out of deliberation and action,
+        // but other agents still see them and run into them
+        if (layersDirty)
+            rebuildLayers();
 
         // For each living agent, figure out what there is to do based on
         // the current state of the world
-        for (Agent agent: agents) {
-            if (agent.isAlive()) {
-                makeAgentThink(agent);
+        indexAgents();
+        if (pool != null) {
+            pool.invoke(new Batch(0, snapshotSize, true));
+        } else {
+            for (Agent agent: movers) {
+                if (agent.isAlive()) {
+                    makeAgentThink(agent);
+                }
             }
         }
+        if (timed)
+            lap = stats.lap(StepStats.Phase.THINK, lap);
+        phase = StepEvents.next(phase, StepStats.Phase.ACT);
 
         // For each living agent, update the state of each agent based
         // on their decisions
-        for (Agent agent: agents) {
-            if (agent.isAlive()) {
-                agent.act();
+        indexObstacles();
+        if (simultaneous) {
+            moveAtOnce();
+        } else {
+            for (Agent agent: movers) {
+                if (agent.isAlive()) {
+                    agent.act();
+                }
             }
         }
-
-        // Give feedback to the designer of the world
-        repaint();  
+        releaseIndex();
+        if (timed)
+            lap = stats.lap(StepStats.Phase.ACT, lap);
+        phase = StepEvents.next(phase, StepStats.Phase.REPAINT);
+
+        // Give feedback to the designer of the world, unless
+        // it is shown at a rate of its own
+        if (frameRate == 0)
+            repaint();
+        if (timed)
+            lap = stats.lap(StepStats.Phase.REPAINT, lap);
+        phase = StepEvents.next(phase, StepStats.Phase.LOG);
         logStep();
+        if (timed)
+            lap = stats.lap(StepStats.Phase.LOG, lap);
+        phase = StepEvents.next(phase, StepStats.Phase.CORPSES);
         removeCorpses();
+        if (timed) {
+            stats.lap(StepStats.Phase.CORPSES, lap);
+            stats.endStep(start);
+        }
+        phase.commit();
+        event.step = stepCount;
+        event.agents = agents.size();
+        event.commit();
     }
 }
@@ -0,0 +1,119 @@
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
+
+/**
+ * WorldView displays a world on screen, and lets the user
+ * drag agents around in it.  The world itself knows nothing
+ * about windows, so it can be simulated without a display;
+ * a view is only made when there is a window to put it in.
+ *
+ * Uses double buffering drawing,
+ * after: http://download.oracle.com/javase/1.3/docs/guide/awt/designspec/lightweights.html
+ *
+ * @author Matthew Stone
+ * @version 1.0
+ */
+public class WorldView extends Canvas {
+
+    /**
+     * Java AWT components are required to be serializable,
+     * and therefore require a long int id indicating what
+     * version of the code the serialization comes from.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /** The world being displayed */
+    private World world;
+    /** The agent that is currently being dragged by the user in the UI */
+    private Agent clicked;
+    /** image for double buffering */
+    private Image offscreen;
+
+    /**
+     * Helper class that organizes the UI processing
+     * so you can click on agents and select them.
+     */
+    class ClickToSelectAgent extends MouseAdapter {
+        public void mousePressed(MouseEvent e) {
+            clicked = world.agentAt(e.getX(), e.getY());
+        }
+
+        public void mouseReleasedEvent(MouseEvent e) {
+            clicked = null;
+        }
+    }
+
+    /**
+     * Helper class that organizes the UI processing
+     * so you can drag agents and move them.
+     */
+    class DragToMoveAgent extends MouseMotionAdapter {
+        public void mouseDragged(MouseEvent e) {
+            int x = e.getX();
+            int y = e.getY();
+            if (clicked != null) {
+                clicked.setLocX(x);
+                clicked.setLocY(y);
+                world.agentChanged(clicked);
+            }
+        }
+    }
+
+    /**
+     * Constructor for a view of the whole of a world
+     *
+     * @param w world to display
+     */
+    public WorldView(World w) {
+        world = w;
+        setSize(w.getWidth(), w.getHeight());
+        addMouseListener(new ClickToSelectAgent());
+        addMouseMotionListener(new DragToMoveAgent());
+        offscreen = null;
+    }
+
+    /**
+     * @return the world being displayed
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Callback method when window is resized
+     * (among other things)
+     */
+    public void invalidate() {
+    	super.invalidate();
+    	offscreen = null;
+    }
+
+    /**
+     * override update to *not* erase the background
+     */
+    public void update(Graphics g) {
+    	paint(g);
+    }
+
+    /**
+     * Callback method to redisplay the world
+     */
+    public void paint(Graphics og) {
+    	int width = getSize().width;
+    	int height = getSize().height;
+    	if (offscreen == null) {
+    		offscreen = createImage(width, height);
+    	}
+    	Graphics g = offscreen.getGraphics();
+    	g.setClip(0,0, width, height);
+    	g.clearRect(0,0, width, height);
+        world.draw(g);
+
+        og.drawImage(offscreen, 0, 0, this);
+        g.dispose();
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import flockers.bench.Workloads;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Makes big worlds for benchmarks out of the small ones in
+ * the Examples folder.  The agents being measured take the place
+ * of the example's flockers, as many as asked for, spread over
+ * a world sized to give them the density asked for; every other
+ * kind of agent in the example (lights, rocks, predators) is
+ * scaled up in proportion, and the example's world settings and
+ * defaults are kept.  Agents are placed with the spawn element,
+ * always with the same seeds, so the same arguments always make
+ * the same world.
+ *
+ * Benchmarks, which JMH insists go in a named package, cannot
+ * import this class, so they find it as their Workloads through
+ * ServiceLoader.
+ *
+ * @version 1.0
+ */
+public class BenchmarkWorlds implements Workloads {
+
+    /** Area counted as one unit for densities, 100 by 100 pixels */
+    static final double DENSITY_AREA = 100 * 100;
+
+    /** World attributes that are not copied from the example */
+    private static final String[] LEFT_OUT = {
+        World.WIDTH_PARAM, World.HEIGHT_PARAM, World.LOGFILE_PARAM, World.RUNNABLE_PARAM
+    };
+
+    /**
+     * What an example contains: its world settings, its defaults,
+     * and how many agents of each kind
+     */
+    private static class Example extends DefaultHandler {
+        /** Attributes of the world element, by name */
+        final Map<String, String> world = new LinkedHashMap<String, String>();
+        /** Text of the defaults element */
+        final StringBuilder defaults = new StringBuilder();
+        /** How many agents of each kind, by element name */
+        final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        /** Whether we are inside a defaults element */
+        private boolean inDefaults;
+
+        public void startElement(String uri, String name, String qName, Attributes atts) {
+            if (World.XML_NAME.equals(name)) {
+                for (int i = 0; i < atts.getLength(); i++) {
+                    if (!atts.getQName(i).startsWith("xmlns"))
+                        world.put(atts.getQName(i), atts.getValue(i));
+                }
+                for (String left: LEFT_OUT)
+                    world.remove(left);
+            } else if (FlockingReader.DEFAULT_ELEMENT.equals(name)) {
+                inDefaults = true;
+            } else if (inDefaults) {
+                defaults.append("      <").append(name).append(attributes(atts)).append(" />\n");
+            } else {
+                Integer n = counts.get(name);
+                counts.put(name, n == null ? 1 : n + 1);
+            }
+        }
+
+        public void endElement(String uri, String name, String qName) {
+            if (FlockingReader.DEFAULT_ELEMENT.equals(name))
+                inDefaults = false;
+        }
+    }
+
+    public Runnable stepper(String example, String type, int count, double density)
+    throws IOException, SAXException {
+        final World w = build(example, type, count, density);
+        return new Runnable() {
+            public void run() {
+                w.stepWorld();
+            }
+        };
+    }
+
+    public String log(String example, String type, int count, double density, int steps,
+            String format, boolean delta)
+    throws IOException, SAXException {
+        File log = File.createTempFile("replay", ".log");
+        Map<String, String> logging = new LinkedHashMap<String, String>();
+        logging.put(World.LOGFILE_PARAM, log.getPath());
+        logging.put(World.LOGFORMAT_PARAM, format);
+        logging.put(World.LOGDELTA_PARAM, Boolean.toString(delta));
+        World w = build(example, type, count, density, logging);
+        w.startLogging();
+        for (int i = 0; i < steps; i++)
+            w.stepWorld();
+        w.finishLogging();
+        return log.getPath();
+    }
+
+    public Runnable player(String log, final boolean random) throws IOException, SAXException {
+        final ReplayEngine replay = new ReplayEngine(log, null);
+        return new Runnable() {
+            /** Picks steps to seek to, the same ones every run */
+            private final Random steps = new Random(1);
+
+            public void run() {
+                int first = replay.getFirstStep();
+                int last = replay.getLastStep();
+                int step;
+                if (random)
+                    step = first + steps.nextInt(last - first + 1);
+                else
+                    step = replay.getStep() < last ? replay.getStep() + 1 : first;
+                try {
+                    replay.seek(step);
+                } catch (SAXException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Make a world to benchmark
+     *
+     * @param example name of the example file, in the examples folder
+     * @param type element name of the kind of agent to measure
+     * @param count how many agents of that kind
+     * @param density how many agents of that kind per DENSITY_AREA
+     * @return the world
+     * @throws IOException in case a file cannot be read or written
+     * @throws SAXException in case the example is not valid
+     */
+    public static World build(String example, String type, int count, double density)
+    throws IOException, SAXException {
+        return build(example, type, count, density, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Make a world to benchmark, with some world attributes
+     * in place of the example's
+     *
+     * @param example name of the example file, in the examples folder
+     * @param type element name of the kind of agent to measure
+     * @param count how many agents of that kind
+     * @param density how many agents of that kind per DENSITY_AREA
+     * @param attributes attributes of the world element, by name
+     * @return the world
+     * @throws IOException in case a file cannot be read or written
+     * @throws SAXException in case the example is not valid
+     */
+    static World build(String example, String type, int count, double density,
+            Map<String, String> attributes)
+    throws IOException, SAXException {
+        Example e = read(new File(examplesFolder(), example));
+        e.world.putAll(attributes);
+        Integer flockers = e.counts.remove(Flocker.XML_NAME);
+        if (flockers == null)
+            throw new IllegalArgumentException(example + " has no flockers to stand in for");
+        double scale = (double) count / flockers;
+        int side = (int) Math.ceil(Math.sqrt(count * DENSITY_AREA / density));
+
+        File spec = File.createTempFile("bench", ".xml");
+        try {
+            Writer out = new FileWriter(spec);
+            try {
+                out.write("<?xml version=\"1.0\"?>\n");
+                out.write("<" + World.XML_NAME + " xmlns=\"" + World.XMLNS + "\" " +
+                        World.WIDTH_PARAM + "=\"" + side + "\" " + World.HEIGHT_PARAM + "=\"" + side + "\"");
+                for (Map.Entry<String, String> a: e.world.entrySet())
+                    out.write(" " + a.getKey() + "=\"" + escape(a.getValue()) + "\"");
+                out.write(">\n");
+                out.write("   <" + FlockingReader.DEFAULT_ELEMENT + ">\n" + e.defaults +
+                        "   </" + FlockingReader.DEFAULT_ELEMENT + ">\n");
+                int seed = 1;
+                out.write(spawn(type, count, seed));
+                for (Map.Entry<String, Integer> c: e.counts.entrySet())
+                    out.write(spawn(c.getKey(), (int) Math.round(c.getValue() * scale), ++seed));
+                out.write("</" + World.XML_NAME + ">\n");
+            } finally {
+                out.close();
+            }
+            return Simulation.load(spec.getPath(), null);
+        } finally {
+            spec.delete();
+        }
+    }
+
+    /**
+     * @return the folder the examples are in: the flockers.examples
+     *         system property if set, otherwise Examples in or next to
+     *         the current folder
+     */
+    static File examplesFolder() {
+        String name = System.getProperty("flockers.examples");
+        if (name != null)
+            return new File(name);
+        File here = new File("Examples");
+        return here.isDirectory() ? here : new File("..", "Examples");
+    }
+
+    private static Example read(File f) throws IOException, SAXException {
+        XMLReader xr = FlockingReader.newXMLReader();
+        Example e = new Example();
+        xr.setContentHandler(e);
+        xr.parse(new InputSource(f.toURI().toString()));
+        return e;
+    }
+
+    private static String spawn(String type, int count, int seed) {
+        return "   <" + FlockingReader.SPAWN_ELEMENT + " " + FlockingReader.SPAWN_TYPE + "=\"" + type + "\" " +
+            FlockingReader.SPAWN_COUNT + "=\"" + count + "\" " + FlockingReader.SPAWN_SEED + "=\"" + seed + "\" />\n";
+    }
+
+    private static String attributes(Attributes atts) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < atts.getLength(); i++)
+            text.append(' ').append(atts.getQName(i)).append("=\"").append(escape(atts.getValue(i))).append('"');
+        return text.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+}
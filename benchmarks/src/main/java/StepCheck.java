@@ -0,0 +1,144 @@
+import java.awt.Frame;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that the faster ways of stepping a world give exactly
+ * the same history as the plain ones.  Each example is simulated
+ * several ways, and the id, position, heading and speed of every
+ * agent after every step, the numbers a log records, are compared
+ * bit for bit:
+ *
+ *   - agents thinking in one thread, and in several;
+ *   - all agents moving at once, planned in one thread and in
+ *     several, which also exercises the collision geometry;
+ *   - flockers deliberating in one pass, and through the separate
+ *     force methods, as a subclass of Flocker does.
+ *
+ * Run it from the top folder after building:
+ *
+ *   java -cp benchmarks/target/benchmarks.jar StepCheck [steps]
+ *
+ * It prints a line for each example and exits with status 1
+ * if any history differs.
+ *
+ * @version 1.0
+ */
+public class StepCheck {
+
+    /** Steps simulated when none are asked for */
+    static final int DEFAULT_STEPS = 200;
+    /** Threads used for the runs that think or move in parallel */
+    static final int THREADS = 4;
+
+    /**
+     * Reads a world, making every flocker an instance of a
+     * subclass that leaves the force methods as they are, so
+     * that it deliberates through them rather than in one pass
+     */
+    private static class PerMethodReader extends FlockingReader {
+        PerMethodReader() {
+            super(null);
+        }
+
+        protected Agent makeAgent(String name, int id, Attributes atts) throws SAXException {
+            if (Flocker.XML_NAME.equals(name))
+                return new Flocker(getWorld(), id, atts, null) {};
+            return super.makeAgent(name, id, atts);
+        }
+    }
+
+    /**
+     * Check every example
+     *
+     * @param args how many steps to simulate, optionally
+     * @throws IOException in case an example cannot be read
+     * @throws SAXException in case an example is not valid
+     */
+    public static void main(String[] args) throws IOException, SAXException {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_STEPS;
+        File[] examples = BenchmarkWorlds.examplesFolder().listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().endsWith(".xml");
+            }
+        });
+        if (examples == null)
+            throw new IOException("no examples in " + BenchmarkWorlds.examplesFolder());
+        Arrays.sort(examples);
+        int failures = 0;
+        for (File example: examples) {
+            byte[] serial = history(example, steps, 1, false, false);
+            if (serial == null)
+                continue;
+            StringBuilder differences = new StringBuilder();
+            if (!Arrays.equals(serial, history(example, steps, THREADS, false, false)))
+                differences.append(" parallel-think");
+            if (!Arrays.equals(history(example, steps, 1, true, false),
+                    history(example, steps, THREADS, true, false)))
+                differences.append(" parallel-move");
+            if (!Arrays.equals(serial, history(example, steps, 1, false, true)))
+                differences.append(" per-method-forces");
+            if (differences.length() > 0)
+                failures++;
+            System.out.println(example.getName() + ": " +
+                    (differences.length() == 0 ? "same" : "differs in" + differences));
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Simulate an example and record what happened
+     *
+     * @param example the example file
+     * @param steps how many steps to simulate
+     * @param threads how many threads agents think and plan moves in
+     * @param simultaneous whether all agents move at once, rather
+     *                     than as the example says
+     * @param perMethod whether flockers deliberate through the force methods
+     * @return the state of every agent after every step, or null
+     *         if the example is not a world to simulate
+     */
+    private static byte[] history(File example, int steps, int threads, boolean simultaneous,
+            boolean perMethod) throws IOException, SAXException {
+        World w = load(example, perMethod ? new PerMethodReader() : new FlockingReader((Frame) null));
+        if (w == null || !w.isRunnable())
+            return null;
+        w.setParallelism(threads);
+        if (simultaneous)
+            w.setSimultaneousMoves(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < steps; i++) {
+            w.stepWorld();
+            for (Agent a: w.getAgents()) {
+                out.writeInt(a.getId());
+                out.writeDouble(a.getLocX());
+                out.writeDouble(a.getLocY());
+                out.writeDouble(a.getHeading());
+                out.writeDouble(a.getForwardV());
+            }
+        }
+        w.setParallelism(1);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static World load(File example, FlockingReader handler) throws IOException, SAXException {
+        // number the agents the same way every time
+        FlockingReader.nextId = 1;
+        XMLReader xr = FlockingReader.newXMLReader();
+        xr.setContentHandler(handler);
+        xr.setErrorHandler(handler);
+        xr.parse(new InputSource(example.toURI().toString()));
+        return handler.getWorld();
+    }
+}
@@ -0,0 +1,91 @@
+package flockers.bench;
+
+import java.io.File;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How many steps of a log ReplayEngine shows a second, playing
+ * through it in order and seeking to steps at random, for XML
+ * and binary logs, full and delta.  The log is made once per
+ * trial by simulating a world made from one of the examples
+ * by BenchmarkWorlds.
+ *
+ * Run it from the jar built by Maven, from the top folder:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar ReplayBenchmark
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ReplayBenchmark {
+
+    /** Format of the log */
+    @Param({"xml", "binary"})
+    public String format;
+
+    /** Whether the log records only the agents that changed */
+    @Param({"false", "true"})
+    public boolean delta;
+
+    /** How many flockers */
+    @Param({"1000", "10000"})
+    public int count;
+
+    /** How many steps are logged */
+    @Param({"200"})
+    public int steps;
+
+    /** Example the world is made from, in the Examples folder */
+    @Param({"celebrity.xml"})
+    public String example;
+
+    /** Name of the log */
+    private String log;
+    /** Shows the next step */
+    private Runnable next;
+    /** Shows a step picked at random */
+    private Runnable random;
+
+    @Setup(Level.Trial)
+    public void makeLog() throws Exception {
+        Workloads workloads = ServiceLoader.load(Workloads.class).iterator().next();
+        log = workloads.log(example, "flocker", count, 1, steps, format, delta);
+        next = workloads.player(log, false);
+        random = workloads.player(log, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLog() {
+        new File(log).delete();
+    }
+
+    @Benchmark
+    public void nextStep() {
+        next.run();
+    }
+
+    @Benchmark
+    public void randomStep() {
+        random.run();
+    }
+}
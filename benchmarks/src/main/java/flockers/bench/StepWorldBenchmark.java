@@ -0,0 +1,95 @@
+package flockers.bench;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * How long World.stepWorld takes, headless, for each kind of
+ * moving agent, from 100 to 100k of them, at several densities.
+ * The worlds are made from one of the examples by BenchmarkWorlds,
+ * afresh for each iteration so that every iteration starts from
+ * the same state.
+ *
+ * Run the jar built by Maven:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar
+ *
+ * from the top folder, with the usual JMH options to narrow
+ * things down, e.g. -p type=flocker -p count=1000.  The GC
+ * profiler is always on, so allocation per step is reported
+ * as gc.alloc.rate.norm.
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StepWorldBenchmark {
+
+    /** Element name of the kind of agent to measure */
+    @Param({"flocker", "follower", "reactive-predator", "model-predator"})
+    public String type;
+
+    /** How many agents of that kind */
+    @Param({"100", "1000", "10000", "100000"})
+    public int count;
+
+    /** How many agents of that kind per 100 by 100 pixels */
+    @Param({"0.25", "1", "4"})
+    public double density;
+
+    /** Example the world is made from, in the Examples folder */
+    @Param({"celebrity.xml"})
+    public String example;
+
+    /** Steps the world */
+    private Runnable step;
+
+    @Setup(Level.Iteration)
+    public void makeWorld() throws Exception {
+        step = ServiceLoader.load(Workloads.class).iterator().next()
+            .stepper(example, type, count, density);
+    }
+
+    @Benchmark
+    public void stepWorld() {
+        step.run();
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler, passing on
+     * any JMH command-line options
+     *
+     * @param args JMH options
+     * @throws RunnerException in case a benchmark fails
+     * @throws CommandLineOptionException in case the options are wrong
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
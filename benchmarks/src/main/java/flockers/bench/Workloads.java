@@ -0,0 +1,62 @@
+package flockers.bench;
+
+import java.io.IOException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * What benchmarks measure, made by BenchmarkWorlds.  The simulation
+ * is in the default package, which JMH benchmarks cannot import
+ * since they must be in a named one, so BenchmarkWorlds implements
+ * this interface and is found through ServiceLoader, registered in
+ * META-INF/services; benchmarks then call it like any other object.
+ *
+ * @version 1.0
+ */
+public interface Workloads {
+
+    /**
+     * Make a world to benchmark, and something that steps it
+     *
+     * @param example name of the example file, in the examples folder
+     * @param type element name of the kind of agent to measure
+     * @param count how many agents of that kind
+     * @param density how many agents of that kind per 100 by 100 pixels
+     * @return something that makes the world take one step
+     * @throws IOException in case a file cannot be read or written
+     * @throws SAXException in case the example is not valid
+     */
+    Runnable stepper(String example, String type, int count, double density)
+    throws IOException, SAXException;
+
+    /**
+     * Make a world to benchmark, simulate it, and log what happens
+     *
+     * @param example name of the example file, in the examples folder
+     * @param type element name of the kind of agent to measure
+     * @param count how many agents of that kind
+     * @param density how many agents of that kind per 100 by 100 pixels
+     * @param steps how many steps to simulate
+     * @param format format of the log, xml or binary
+     * @param delta whether to log only the agents that changed
+     * @return name of the log file, a temporary file for the caller to delete
+     * @throws IOException in case a file cannot be read or written
+     * @throws SAXException in case the example is not valid
+     */
+    String log(String example, String type, int count, double density, int steps,
+            String format, boolean delta)
+    throws IOException, SAXException;
+
+    /**
+     * Open a log for replay, and make something that moves it on
+     *
+     * @param log name of the log file
+     * @param random whether to seek to a step picked at random each
+     *               time, rather than to the next step, starting over
+     *               after the last
+     * @return something that shows another step of the log
+     * @throws IOException in case the log cannot be read
+     * @throws SAXException in case the log is not valid
+     */
+    Runnable player(String log, boolean random) throws IOException, SAXException;
+}